@@ -0,0 +1,61 @@
+// One origin-destination pair of a batch search, with the same filters as searchConnections
+public class BatchQuery {
+    private String depCity;
+    private String arrCity;
+    private String depTime;
+    private String arrTime;
+    private String trainType;
+    private String daysOp;
+    private boolean firstClass;
+    private int maxStops;
+    private java.time.DayOfWeek startDay;
+
+    public BatchQuery(String depCity, String arrCity, String depTime, String arrTime, String trainType,
+            String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay) {
+        this.depCity = depCity;
+        this.arrCity = arrCity;
+        this.depTime = depTime;
+        this.arrTime = arrTime;
+        this.trainType = trainType;
+        this.daysOp = daysOp;
+        this.firstClass = firstClass;
+        this.maxStops = maxStops;
+        this.startDay = startDay;
+    }
+
+    public String getDepCity() {
+        return depCity;
+    }
+
+    public String getArrCity() {
+        return arrCity;
+    }
+
+    public String getDepTime() {
+        return depTime;
+    }
+
+    public String getArrTime() {
+        return arrTime;
+    }
+
+    public String getTrainType() {
+        return trainType;
+    }
+
+    public String getDaysOp() {
+        return daysOp;
+    }
+
+    public boolean isFirstClass() {
+        return firstClass;
+    }
+
+    public int getMaxStops() {
+        return maxStops;
+    }
+
+    public java.time.DayOfWeek getStartDay() {
+        return startDay;
+    }
+}
@@ -0,0 +1,33 @@
+// Answer to one query of a batch search. index is the position of the query in the batch,
+// since results are not delivered in batch order
+public class BatchResult {
+    private int index;
+    private BatchQuery query;
+    private ReachableCity destination; // Null when the destination cannot be reached
+
+    public BatchResult(int index, BatchQuery query, ReachableCity destination) {
+        this.index = index;
+        this.query = query;
+        this.destination = destination;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public BatchQuery getQuery() {
+        return query;
+    }
+
+    public boolean isReachable() {
+        return destination != null;
+    }
+
+    public Trip getEarliestTrip() {
+        return destination != null ? destination.getEarliestTrip() : null;
+    }
+
+    public Trip getCheapestTrip() {
+        return destination != null ? destination.getCheapestTrip() : null;
+    }
+}
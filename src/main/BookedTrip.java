@@ -154,6 +154,11 @@ public class BookedTrip {
     }
 
     private java.time.LocalDate calculateArrivalDate(Trip trip, java.time.LocalDate departureDate) {
+        // Trips from a date-aware search already know the date of every leg
+        if (trip.getDepartureDates() != null && trip.getDepartureDates().get(0).equals(departureDate)) {
+            return trip.getArrivalDate();
+        }
+
         LocalDate currentDay = departureDate;
 
         for(int i = 0; i < trip.getConnections().size(); i++){
@@ -1,13 +1,44 @@
 public class City {
     
     private String name;
+    private int id; // Dense id from Connections.findOrCreateCity, -1 if created elsewhere
+    private int hash;
 
     public City(String name) {
+        this(-1, name);
+    }
+
+    public City(int id, String name) {
+        this.id = id;
         this.name = name;
+        this.hash = name.toLowerCase().hashCode();
     }
 
     public String getName() {
         return name;
     }
 
-}
\ No newline at end of file
+    public int getId() {
+        return id;
+    }
+
+    // Cities are matched by name, ignoring case (as in Connections.findOrCreateCity). Cities
+    // from findOrCreateCity are interned, so for those this is the same as comparing references
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof City)) {
+            return false;
+        }
+        City other = (City) obj;
+        return hash == other.hash && name.equalsIgnoreCase(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+}
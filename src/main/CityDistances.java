@@ -0,0 +1,176 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// City-to-city lower bounds from the timetable: the fewest trains needed to get from one
+// city to another, and the shortest time spent on trains (layovers, days of operation and
+// filters are ignored, so both are lower bounds for any real trip).
+// The searches use them to drop intermediate cities that cannot reach the destination in
+// the stops left, and to answer "no route" without searching at all.
+// Building only groups the shortest legs by arrival city. The bounds towards a destination
+// are worked out the first time a search asks for it, with one BFS and one Dijkstra
+// backwards over those legs, and the most recent destinations are kept.
+public class CityDistances {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int DESTINATIONS_KEPT = 256;
+
+    private Timetable timetable;
+    private int cities;
+    private int[] incomingStart; // Legs into city c are incomingStart[c] .. incomingStart[c + 1] - 1
+    private int[] incomingFrom;
+    private int[] incomingMinutes; // Shortest leg from incomingFrom into the city
+    private Map<Integer, int[][]> byDestination; // destination -> {hops, travel minutes} by origin
+
+    public CityDistances(Timetable timetable) {
+        this.timetable = timetable;
+        this.cities = timetable.cityCount();
+
+        // Rows grouped by arrival city
+        int[] rowStart = new int[cities + 1];
+        for (int row = 0; row < timetable.size(); row++) {
+            rowStart[timetable.toCity(row) + 1]++;
+        }
+        for (int c = 0; c < cities; c++) {
+            rowStart[c + 1] += rowStart[c];
+        }
+        int[] rowsByArrival = new int[timetable.size()];
+        int[] next = Arrays.copyOf(rowStart, cities);
+        for (int row = 0; row < timetable.size(); row++) {
+            rowsByArrival[next[timetable.toCity(row)]++] = row;
+        }
+
+        // One leg per pair of cities, the shortest
+        this.incomingStart = new int[cities + 1];
+        this.incomingFrom = new int[timetable.size()];
+        this.incomingMinutes = new int[timetable.size()];
+        int[] slot = new int[cities];
+        int[] seenFor = new int[cities]; // Arrival city + 1 the slot belongs to
+        int legs = 0;
+        for (int city = 0; city < cities; city++) {
+            incomingStart[city] = legs;
+            for (int i = rowStart[city]; i < rowStart[city + 1]; i++) {
+                int row = rowsByArrival[i];
+                int from = timetable.fromCity(row);
+                if (seenFor[from] != city + 1) {
+                    seenFor[from] = city + 1;
+                    slot[from] = legs;
+                    incomingFrom[legs] = from;
+                    incomingMinutes[legs] = timetable.duration(row);
+                    legs++;
+                } else {
+                    incomingMinutes[slot[from]] = Math.min(incomingMinutes[slot[from]], timetable.duration(row));
+                }
+            }
+        }
+        incomingStart[cities] = legs;
+        this.incomingFrom = Arrays.copyOf(incomingFrom, legs);
+        this.incomingMinutes = Arrays.copyOf(incomingMinutes, legs);
+
+        this.byDestination = Collections.synchronizedMap(new LinkedHashMap<Integer, int[][]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[][]> eldest) {
+                return size() > DESTINATIONS_KEPT;
+            }
+        });
+    }
+
+    // Fewest trains from one city to another (UNREACHABLE if there is no way), by name
+    public int hops(String fromCity, String toCity) {
+        int from = timetable.cityId(fromCity);
+        int to = timetable.cityId(toCity);
+        if (from < 0 || to < 0) {
+            return UNREACHABLE;
+        }
+        return towards(to)[0][from];
+    }
+
+    public int hops(City fromCity, City toCity) {
+        int from = timetable.cityId(fromCity);
+        int to = timetable.cityId(toCity);
+        if (from < 0 || to < 0) {
+            return UNREACHABLE;
+        }
+        return towards(to)[0][from];
+    }
+
+    // Least time on trains from one city to another, not counting layovers
+    public int travelMinutes(City fromCity, City toCity) {
+        int from = timetable.cityId(fromCity);
+        int to = timetable.cityId(toCity);
+        if (from < 0 || to < 0) {
+            return UNREACHABLE;
+        }
+        return towards(to)[1][from];
+    }
+
+    // Whether toCity can be reached from fromCity with at most maxStops stops. A city is
+    // always "reachable" from itself (round trips are left to the search)
+    public boolean canReach(String fromCity, String toCity, int maxStops) {
+        int from = timetable.cityId(fromCity);
+        int to = timetable.cityId(toCity);
+        if (from < 0 || to < 0) {
+            return false;
+        }
+        return from == to || towards(to)[0][from] <= maxStops + 1;
+    }
+
+    // Bounds from every city to destination. Two searches asking for the same new destination
+    // at once may both work it out, which is harmless
+    private int[][] towards(int destination) {
+        int[][] bounds = byDestination.get(destination);
+        if (bounds == null) {
+            bounds = new int[][] { fewestHops(destination), shortestTravel(destination) };
+            byDestination.put(destination, bounds);
+        }
+        return bounds;
+    }
+
+    private int[] fewestHops(int destination) {
+        int[] distance = new int[cities];
+        Arrays.fill(distance, UNREACHABLE);
+        distance[destination] = 0;
+
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(destination);
+        while (!queue.isEmpty()) {
+            int city = queue.poll();
+            for (int i = incomingStart[city]; i < incomingStart[city + 1]; i++) {
+                int previous = incomingFrom[i];
+                if (distance[previous] == UNREACHABLE) {
+                    distance[previous] = distance[city] + 1;
+                    queue.add(previous);
+                }
+            }
+        }
+        return distance;
+    }
+
+    private int[] shortestTravel(int destination) {
+        int[] distance = new int[cities];
+        Arrays.fill(distance, UNREACHABLE);
+        distance[destination] = 0;
+
+        // Entries are {minutes, city}
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0]));
+        queue.add(new int[] { 0, destination });
+        while (!queue.isEmpty()) {
+            int[] entry = queue.poll();
+            int city = entry[1];
+            if (entry[0] > distance[city]) {
+                continue;
+            }
+            for (int i = incomingStart[city]; i < incomingStart[city + 1]; i++) {
+                int previous = incomingFrom[i];
+                if (entry[0] + incomingMinutes[i] < distance[previous]) {
+                    distance[previous] = entry[0] + incomingMinutes[i];
+                    queue.add(new int[] { distance[previous], previous });
+                }
+            }
+        }
+        return distance;
+    }
+}
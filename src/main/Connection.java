@@ -1,3 +1,4 @@
+import java.time.DayOfWeek;
 import java.time.LocalTime;
 
 public class Connection {
@@ -11,6 +12,8 @@ public class Connection {
     private double firstClassPrice;
     private double secondClassPrice;
     private boolean isNextDay; // From CSV (+1d) flag
+    private int dayMask; // daysOfOperation compiled once, see DayMask
+    private ConnectionKey key; // Identity used by equals/hashCode, see ConnectionKey
 
     public Connection(String routeID, City departureCity, City arrivalCity,
             LocalTime departureTime, LocalTime arrivalTime, Train train,
@@ -26,6 +29,8 @@ public class Connection {
         this.firstClassPrice = firstClassPrice;
         this.secondClassPrice = secondClassPrice;
         this.isNextDay = isNextDay;
+        this.dayMask = DayMask.parse(daysOfOperation);
+        this.key = ConnectionKey.of(this);
     }
 
     // Getters
@@ -57,6 +62,18 @@ public class Connection {
         return daysOfOperation;
     }
 
+    public ConnectionKey getKey() {
+        return key;
+    }
+
+    public int getDayMask() {
+        return dayMask;
+    }
+
+    public boolean runsOn(DayOfWeek day) {
+        return DayMask.contains(dayMask, day);
+    }
+
     public double getFirstClassPrice() {
         return firstClassPrice;
     }
@@ -96,4 +113,21 @@ public class Connection {
             return minutes + "m";
         }
     }
-}
\ No newline at end of file
+
+    // Two connections are the same when they have the same route, cities and times
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Connection)) {
+            return false;
+        }
+        return key.equals(((Connection) obj).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+}
@@ -0,0 +1,58 @@
+import java.time.LocalTime;
+
+// Identity of a connection: route ID, departure and arrival city (case-insensitive) and
+// departure and arrival time. Built once per Connection with the hash precomputed, so checking
+// whether two connections are the same one is a set lookup instead of comparing fields.
+public final class ConnectionKey {
+    private final String routeID;
+    private final String departureCity;
+    private final String arrivalCity;
+    private final int departureMinute;
+    private final int arrivalMinute;
+    private final int hash;
+
+    public ConnectionKey(String routeID, String departureCity, String arrivalCity, LocalTime departureTime,
+            LocalTime arrivalTime) {
+        this.routeID = routeID.trim();
+        this.departureCity = departureCity.trim().toLowerCase();
+        this.arrivalCity = arrivalCity.trim().toLowerCase();
+        this.departureMinute = departureTime.getHour() * 60 + departureTime.getMinute();
+        this.arrivalMinute = arrivalTime.getHour() * 60 + arrivalTime.getMinute();
+
+        int h = this.routeID.hashCode();
+        h = 31 * h + this.departureCity.hashCode();
+        h = 31 * h + this.arrivalCity.hashCode();
+        h = 31 * h + departureMinute;
+        h = 31 * h + arrivalMinute;
+        this.hash = h;
+    }
+
+    public static ConnectionKey of(Connection conn) {
+        return new ConnectionKey(conn.getRouteID(), conn.getDepartureCity().getName(),
+                conn.getArrivalCity().getName(), conn.getDepartureTime(), conn.getArrivalTime());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConnectionKey)) {
+            return false;
+        }
+        ConnectionKey other = (ConnectionKey) obj;
+        return hash == other.hash && departureMinute == other.departureMinute
+                && arrivalMinute == other.arrivalMinute && routeID.equals(other.routeID)
+                && departureCity.equals(other.departureCity) && arrivalCity.equals(other.arrivalCity);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return routeID + " " + departureCity + " -> " + arrivalCity + " " + departureMinute + "-" + arrivalMinute;
+    }
+}
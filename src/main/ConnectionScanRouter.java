@@ -0,0 +1,159 @@
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Earliest-arrival search with the Connection Scan Algorithm (CSA).
+// All connections are kept in one array sorted by departure time, and a query
+// is answered by scanning that array once (for the departure day and the day after)
+// instead of enumerating every combination of legs.
+// The scan runs over the columns of the Timetable (rows are already sorted by departure).
+public class ConnectionScanRouter {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int SCAN_DAYS = 2; // Departure day + the following day for overnight journeys
+
+    private Connections connections;
+
+    public ConnectionScanRouter(Connections connections) {
+        this.connections = connections;
+    }
+
+    // Arrival at a city at the end of a chain of legs
+    private static class Label {
+        private int row; // Timetable row of the leg
+        private int departure; // Minutes since midnight of the start day
+        private int arrival;
+        private int legs;
+        private Label previous;
+
+        private Label(int row, int departure, int arrival, int legs, Label previous) {
+            this.row = row;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.legs = legs;
+            this.previous = previous;
+        }
+    }
+
+    // Returns the trip arriving earliest at arrCity (empty list if none).
+    // Every transfer must respect the 30 min minimum and 540 min maximum layover, and when
+    // startDay is given each leg must run on the day it actually departs.
+    public List<Trip> findEarliestArrival(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, DayOfWeek startDay) {
+        List<Trip> trips = new ArrayList<>();
+
+        Timetable timetable = connections.getTimetable();
+        int origin = timetable.cityId(depCity);
+        int destination = timetable.cityId(arrCity);
+        if (origin < 0 || destination < 0 || origin == destination) {
+            return trips;
+        }
+
+        // Train type and days filters are the same as for searchConnections
+        IntPredicate allowed = timetable.matching(trainType, daysOp);
+
+        int maxLegs = maxStops + 1;
+        int earliestDeparture = depTime != null ? depTime : 0;
+
+        // labels[legs][city] holds the arrivals (by arrival time) reached with that many legs
+        List<List<TreeMap<Integer, Label>>> labels = new ArrayList<>();
+        for (int legs = 0; legs <= maxLegs; legs++) {
+            labels.add(new ArrayList<>(Collections.nCopies(timetable.cityCount(), null)));
+        }
+
+        Label best = null;
+
+        scan: for (int day = 0; day < SCAN_DAYS; day++) {
+            DayOfWeek runDay = startDay != null ? startDay.plus(day) : null;
+
+            for (int row = 0; row < timetable.size(); row++) {
+                int departure = day * MINUTES_PER_DAY + timetable.departure(row);
+                if (departure < earliestDeparture) {
+                    continue;
+                }
+
+                // Rows are sorted, so nothing after this can arrive earlier
+                if (best != null && departure >= best.arrival) {
+                    break scan;
+                }
+
+                if (allowed != null && !allowed.test(row)) {
+                    continue;
+                }
+                if (runDay != null && !timetable.runsOn(row, runDay)) {
+                    continue;
+                }
+
+                int from = timetable.fromCity(row);
+                int to = timetable.toCity(row);
+                int arrival = departure + timetable.duration(row);
+                Label reached = null;
+
+                if (day == 0 && from == origin) {
+                    reached = new Label(row, departure, arrival, 1, null);
+                } else {
+                    // Latest arrival at this city that still leaves enough time to transfer
+                    for (int legs = 1; legs < maxLegs && reached == null; legs++) {
+                        TreeMap<Integer, Label> arrivals = labels.get(legs).get(from);
+                        if (arrivals == null) {
+                            continue;
+                        }
+                        Map.Entry<Integer, Label> entry = arrivals
+                                .floorEntry(departure - RailwaySystem.MIN_LAYOVER_MINUTES);
+                        if (entry != null && entry.getKey() >= departure - RailwaySystem.MAX_DAY_LAYOVER_MINUTES) {
+                            reached = new Label(row, departure, arrival, legs + 1, entry.getValue());
+                        }
+                    }
+                }
+
+                if (reached == null) {
+                    continue;
+                }
+
+                if (to == destination) {
+                    if (arrTime != null && timetable.arrival(row) > arrTime) {
+                        continue;
+                    }
+                    if (best == null || arrival < best.arrival) {
+                        best = reached;
+                    }
+                } else if (to != origin && reached.legs < maxLegs) {
+                    List<TreeMap<Integer, Label>> byCity = labels.get(reached.legs);
+                    if (byCity.get(to) == null) {
+                        byCity.set(to, new TreeMap<>());
+                    }
+                    byCity.get(to).putIfAbsent(arrival, reached);
+                }
+            }
+        }
+
+        if (best != null) {
+            trips.add(buildTrip(timetable, best, firstClass));
+        }
+        return trips;
+    }
+
+    // Turn a chain of labels back into a Trip
+    private Trip buildTrip(Timetable timetable, Label last, boolean firstClass) {
+        List<Label> chain = new ArrayList<>();
+        for (Label label = last; label != null; label = label.previous) {
+            chain.add(label);
+        }
+        Collections.reverse(chain);
+
+        Trip trip = new Trip();
+        int transferMinutes = 0;
+        for (int i = 0; i < chain.size(); i++) {
+            trip.addConnection(timetable.connectionAt(chain.get(i).row));
+            if (i > 0) {
+                transferMinutes += chain.get(i).departure - chain.get(i - 1).arrival;
+            }
+        }
+
+        trip.computeTotalsWithLayovers(firstClass, transferMinutes);
+        return trip;
+    }
+}
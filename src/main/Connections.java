@@ -1,17 +1,84 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public class Connections {
     private List<Connection> connections;
+    private DatabaseManager dbManager;
+    private String snapshotFile = TimetableSnapshot.DEFAULT_FILE;
+    private String patternsFile = TransferPatterns.DEFAULT_FILE;
+    private String holidaysFile = ServiceCalendar.DEFAULT_FILE;
+
+    // Optional off-heap copy of the timetable. When set, the connections live only in the
+    // mapped file and the lists below stay empty (see setOffHeapStore)
+    private String storeFile;
+    private int storeFiles; // Stores created so far, each gets its own file
+    private MappedTimetableStore store;
+
+    // Symbol tables: every city and train type gets a dense id (its index in the list),
+    // looked up by lowercase name, so there is only one City or Train object per name
     private List<City> cities;
+    private Map<String, City> citiesByName;
     private List<Train> trains;
-    private DatabaseManager dbManager;
+    private Map<String, Train> trainsByType;
+
+    // Indexes on city and train id so findMatching does not scan every connection when a
+    // departure city, arrival city or train type is given
+    private List<List<Connection>> byDepartureCity;
+    private List<List<Connection>> byArrivalCity;
+    private List<List<Connection>> byTrain; // By train id
+
+    // Incremented whenever the timetable changes so search engines can rebuild
+    // anything they derived from it
+    private int version;
+
+    // Departures per city sorted by time, built on first use and dropped when the version changes
+    private List<DepartureBoard> departureBoards;
+    private int boardsVersion;
+
+    // Column-oriented copy for the search engines, built on first use per version
+    private Timetable timetable;
+    private int timetableVersion;
+
+    // Hop and travel time lower bounds between cities, rebuilt with the timetable
+    private CityDistances cityDistances;
+    private int distancesVersion;
+
+    // Preprocessed hierarchy for the optional earliest-arrival engine, built on first use
+    private ContractionHierarchy contractionHierarchy;
+    private int hierarchyVersion;
+
+    // Transfer cities of the one-stop and two-stop trips between every pair of cities, read
+    // from the patterns file at startup and otherwise built on first use. Connections added
+    // since then are only folded in when the patterns are next used
+    private TransferPatterns transferPatterns;
+    private int patternsVersion;
+    private List<Connection> patternAdds;
+
+    // Row statistics for planning findMatching, rebuilt with the timetable
+    private QueryPlanner queryPlanner;
+    private int plannerVersion;
+
+    // Per-date service bitmaps for date-aware searches; the holiday exceptions are read once
+    private ServiceCalendar serviceCalendar;
+    private int calendarVersion;
+    private Map<java.time.LocalDate, Map<String, Boolean>> holidayExceptions;
 
     public Connections() {
         this.connections = new ArrayList<>();
         this.cities = new ArrayList<>();
+        this.citiesByName = new HashMap<>();
         this.trains = new ArrayList<>();
+        this.trainsByType = new HashMap<>();
         this.dbManager = null;
+        this.byDepartureCity = new ArrayList<>();
+        this.byArrivalCity = new ArrayList<>();
+        this.byTrain = new ArrayList<>();
+        this.departureBoards = new ArrayList<>();
+        this.patternAdds = new ArrayList<>();
     }
 
     public void setDatabaseManager(DatabaseManager dbManager) {
@@ -26,10 +93,29 @@ public class Connections {
         try {
             int dbCount = dbManager.getConnectionCount();
             if (dbCount > 0) {
-                System.out.println("Loading connections from database...");
-                List<Connection> loaded = dbManager.loadAllConnections(this);
+                // The snapshot is much faster to read, the database is only used when it is stale
+                int dbMaxId = dbManager.getMaxConnectionId();
+                List<Connection> loaded = TimetableSnapshot.load(snapshotFile, this, dbManager, dbCount, dbMaxId);
+                boolean fromSnapshot = loaded != null;
+                if (!fromSnapshot) {
+                    System.out.println("Loading connections from database...");
+                    loaded = dbManager.loadAllConnections(this);
+                }
+
                 connections.addAll(loaded);
-                System.out.println("Loaded " + loaded.size() + " connections from database.");
+                for (Connection conn : loaded) {
+                    indexConnection(conn);
+                }
+                version++;
+
+                if (fromSnapshot) {
+                    System.out.println("Loaded " + loaded.size() + " connections from snapshot.");
+                } else {
+                    System.out.println("Loaded " + loaded.size() + " connections from database.");
+                    saveSnapshot();
+                }
+                loadTransferPatterns(dbCount, dbMaxId);
+                moveToStore();
             }
         } catch (Exception e) {
             System.err.println("Error loading from database: " + e.getMessage());
@@ -37,38 +123,250 @@ public class Connections {
         }
     }
 
+    // Write the timetable snapshot for the next startup. Called after an import and after
+    // loading from the database; a snapshot that cannot be written only costs startup time
+    public void saveSnapshot() {
+        if (dbManager == null) {
+            return;
+        }
+
+        try {
+            TimetableSnapshot.write(snapshotFile, getAll(), this, dbManager, dbManager.getConnectionCount(),
+                    dbManager.getMaxConnectionId());
+        } catch (Exception e) {
+            System.err.println("Error writing timetable snapshot: " + e.getMessage());
+        }
+    }
+
+    public void setSnapshotFile(String snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    // Use the saved transfer patterns if they were written for the same database, otherwise
+    // compute them now and save them for the next startup
+    private void loadTransferPatterns(int dbCount, int dbMaxId) {
+        TransferPatterns loaded = TransferPatterns.load(patternsFile, getTimetable(), dbCount, dbMaxId);
+        if (loaded != null) {
+            transferPatterns = loaded;
+            patternsVersion = version;
+        } else {
+            saveTransferPatterns();
+        }
+    }
+
+    // Compute the transfer patterns for the current timetable and write them to the patterns file
+    public void saveTransferPatterns() {
+        TransferPatterns patterns = getTransferPatterns();
+        if (dbManager == null) {
+            return;
+        }
+
+        try {
+            patterns.write(patternsFile, dbManager.getConnectionCount(), dbManager.getMaxConnectionId());
+        } catch (Exception e) {
+            System.err.println("Error writing transfer patterns: " + e.getMessage());
+        }
+    }
+
+    public void setPatternsFile(String patternsFile) {
+        this.patternsFile = patternsFile;
+    }
+
+    // Holiday exceptions for date-aware searches (see ServiceCalendar for the format)
+    public void setHolidaysFile(String holidaysFile) {
+        this.holidaysFile = holidaysFile;
+        this.holidayExceptions = null;
+        this.serviceCalendar = null;
+    }
+
+    // Called once a whole timetable has been imported: writes the snapshot and the transfer
+    // patterns and, when the off-heap store is enabled, moves the connections into it
+    public void importFinished() {
+        saveSnapshot();
+        saveTransferPatterns();
+        moveToStore();
+    }
+
+    // Keep the timetable in a memory-mapped file instead of on the heap (null to turn it off).
+    // Meant for large, read-mostly timetables: adding a connection brings the timetable back
+    // onto the heap until the next importFinished(). Every store is written to a new file named
+    // file.1, file.2, ..., since the previous one may still be mapped by a running search
+    public void setOffHeapStore(String file) {
+        this.storeFile = file;
+        if (file == null) {
+            moveToHeap();
+        } else {
+            moveToStore();
+        }
+    }
+
+    public boolean isOffHeap() {
+        return store != null;
+    }
+
+    private void moveToStore() {
+        if (storeFile == null || connections.isEmpty()) {
+            return;
+        }
+
+        try {
+            store = MappedTimetableStore.create(storeFile + "." + (++storeFiles), this, connections);
+        } catch (Exception e) {
+            System.err.println("Error creating off-heap timetable: " + e.getMessage());
+            return;
+        }
+        connections = new ArrayList<>();
+        for (int id = 0; id < cities.size(); id++) {
+            byDepartureCity.set(id, new ArrayList<>());
+            byArrivalCity.set(id, new ArrayList<>());
+        }
+        for (int id = 0; id < trains.size(); id++) {
+            byTrain.set(id, new ArrayList<>());
+        }
+        if (dbManager != null) {
+            dbManager.forgetConnectionIds();
+        }
+        // Nothing changed for the searches, but anything derived from the heap lists has to go
+        version++;
+        keepTransferPatterns();
+    }
+
+    private void moveToHeap() {
+        if (store == null) {
+            return;
+        }
+
+        List<Connection> restored = new ArrayList<>(store.size());
+        store.collectAll(null, restored);
+        store.delete();
+        store = null;
+        connections.addAll(restored);
+        for (Connection conn : restored) {
+            indexConnection(conn);
+        }
+        version++;
+        keepTransferPatterns();
+    }
+
+    // Moving between the heap and the store keeps the same connections and city ids, so the
+    // transfer patterns do not have to be computed again
+    private void keepTransferPatterns() {
+        if (transferPatterns != null && patternsVersion == version - 1) {
+            patternsVersion = version;
+        }
+    }
+
     // Create city object if it does not already exist
     public City findOrCreateCity(String name) {
-        String lowerName = name.trim().toLowerCase();
-
-        for (City city : cities) {
-            if (city.getName().toLowerCase().equals(lowerName)) {
-                return city;
-            }
+        City city = citiesByName.get(symbolKey(name));
+        if (city != null) {
+            return city;
         }
 
-        City newCity = new City(name.trim());
+        City newCity = new City(cities.size(), name.trim());
         cities.add(newCity);
+        citiesByName.put(symbolKey(name), newCity);
+        byDepartureCity.add(new ArrayList<>());
+        byArrivalCity.add(new ArrayList<>());
         return newCity;
     }
 
+    // Look up an existing city without creating it, null if unknown
+    public City findCity(String name) {
+        if (name == null) {
+            return null;
+        }
+        return citiesByName.get(symbolKey(name));
+    }
+
+    public City getCity(int id) {
+        return cities.get(id);
+    }
+
+    public int getCityCount() {
+        return cities.size();
+    }
+
     // Create train object if it does not already exist
     public Train findOrCreateTrain(String type) {
-        String lowerType = type.trim().toLowerCase();
-
-        for (Train train : trains) {
-            if (train.getType().toLowerCase().equals(lowerType)) {
-                return train;
-            }
+        Train train = trainsByType.get(symbolKey(type));
+        if (train != null) {
+            return train;
         }
 
-        Train newTrain = new Train(type.trim());
+        Train newTrain = new Train(trains.size(), type.trim());
         trains.add(newTrain);
+        trainsByType.put(symbolKey(type), newTrain);
+        byTrain.add(new ArrayList<>());
         return newTrain;
     }
 
+    // Look up an existing train type without creating it, null if unknown
+    public Train findTrain(String type) {
+        if (type == null) {
+            return null;
+        }
+        return trainsByType.get(symbolKey(type));
+    }
+
+    public Train getTrain(int id) {
+        return trains.get(id);
+    }
+
+    public int getTrainCount() {
+        return trains.size();
+    }
+
+    private String symbolKey(String name) {
+        return name.trim().toLowerCase();
+    }
+
+    // Add connection to the departure and arrival city indexes. Connections built from cities
+    // that did not come from findOrCreateCity are added to the table by name
+    private void indexConnection(Connection connection) {
+        byDepartureCity.get(intern(connection.getDepartureCity())).add(connection);
+        byArrivalCity.get(intern(connection.getArrivalCity())).add(connection);
+        int trainId = idOf(connection.getTrain());
+        if (trainId < 0) {
+            trainId = findOrCreateTrain(connection.getTrain().getType()).getId();
+        }
+        byTrain.get(trainId).add(connection);
+    }
+
+    private int intern(City city) {
+        int id = idOf(city);
+        return id >= 0 ? id : findOrCreateCity(city.getName()).getId();
+    }
+
+    // Id of a city in this table (-1 if unknown), comparing the reference first and only
+    // falling back to the name for cities that did not come from findOrCreateCity
+    int idOf(City city) {
+        int id = city.getId();
+        if (id >= 0 && id < cities.size() && cities.get(id) == city) {
+            return id;
+        }
+        return idOrNone(findCity(city.getName()));
+    }
+
+    int idOf(Train train) {
+        int id = train.getId();
+        if (id >= 0 && id < trains.size() && trains.get(id) == train) {
+            return id;
+        }
+        Train interned = findTrain(train.getType());
+        return interned != null ? interned.getId() : -1;
+    }
+
     public void add(Connection connection) {
+        moveToHeap();
         connections.add(connection);
+        indexConnection(connection);
+        version++;
+        // The transfer patterns are extended for it when next used instead of rebuilt
+        if (transferPatterns != null && patternsVersion == version - 1) {
+            patternAdds.add(connection);
+            patternsVersion = version;
+        }
 
         // Save to database if available
         if (dbManager != null) {
@@ -84,284 +382,217 @@ public class Connections {
     }
 
     public List<Connection> getAll() {
+        if (store != null) {
+            List<Connection> all = new ArrayList<>(store.size());
+            store.collectAll(null, all);
+            return all;
+        }
         return new ArrayList<>(connections);
     }
 
     public int getCount() {
-        return connections.size();
+        return store != null ? store.size() : connections.size();
     }
 
-    public List<Connection> findMatching(String depCity, String arrCity,
-            Integer depTime, Integer arrTime, String trainType, String daysOp) {
-        List<Connection> matches = new ArrayList<>();
-
-        // Check each connection against all filters
-        for (Connection conn : connections) {
-            boolean match = true;
-
-            // Filter by departure city (case-insensitive)
-            if (depCity != null && !depCity.trim().isEmpty()) {
-                if (!conn.getDepartureCity().getName().equalsIgnoreCase(depCity.trim())) {
-                    match = false;
-                }
-            }
-
-            // Filter by arrival city (case-insensitive)
-            if (arrCity != null && !arrCity.trim().isEmpty()) {
-                if (!conn.getArrivalCity().getName().equalsIgnoreCase(arrCity.trim())) {
-                    match = false;
-                }
-            }
-
-            // Filter by minimum departure time (>= filter)
-            if (depTime != null) {
-                int connDepMinutes = conn.getDepartureTime().getHour() * 60 + conn.getDepartureTime().getMinute();
-                if (connDepMinutes < depTime) {
-                    match = false;
-                }
-            }
-
-            // Filter by maximum arrival time (<= filter)
-            if (arrTime != null) {
-                int connArrMinutes = conn.getArrivalTime().getHour() * 60 + conn.getArrivalTime().getMinute();
-                if (connArrMinutes > arrTime) {
-                    match = false;
-                }
-            }
-
-            // Filter by train type
-            if (trainType != null && !trainType.trim().isEmpty()) {
-                if (!conn.getTrain().getType().equalsIgnoreCase(trainType.trim())) {
-                    match = false;
-                }
-            }
-
-            // Filter by days of operation
-            if (daysOp != null && !daysOp.trim().isEmpty()) {
-                if (!daysMatch(conn.getDaysOfOperation(), daysOp)) {
-                    match = false;
-                }
-            }
+    public int getVersion() {
+        return version;
+    }
 
-            // If all filters passed, add to results
-            if (match) {
-                matches.add(conn);
-            }
+    public Timetable getTimetable() {
+        if (timetable == null || timetableVersion != version) {
+            timetable = store != null ? Timetable.over(store, cities, trains)
+                    : Timetable.build(connections, cities, trains);
+            timetableVersion = version;
         }
+        return timetable;
+    }
 
-        return matches;
+    public CityDistances getCityDistances() {
+        if (cityDistances == null || distancesVersion != version) {
+            cityDistances = new CityDistances(getTimetable());
+            distancesVersion = version;
+        }
+        return cityDistances;
     }
 
-    private boolean daysMatch(String connectionDays, String filterDays) {
-        if (connectionDays == null || filterDays == null) {
-            return true;
+    public ContractionHierarchy getContractionHierarchy() {
+        if (contractionHierarchy == null || hierarchyVersion != version) {
+            contractionHierarchy = new ContractionHierarchy(getTimetable());
+            hierarchyVersion = version;
         }
+        return contractionHierarchy;
+    }
 
-        String connDays = connectionDays.trim();
-        String filter = filterDays.trim();
+    public ServiceCalendar getServiceCalendar() {
+        if (serviceCalendar == null || calendarVersion != version) {
+            if (holidayExceptions == null) {
+                holidayExceptions = ServiceCalendar.loadExceptions(holidaysFile);
+            }
+            serviceCalendar = new ServiceCalendar(getTimetable(), holidayExceptions);
+            calendarVersion = version;
+        }
+        return serviceCalendar;
+    }
 
-        // "Daily" connections match any filter
-        if (connDays.equalsIgnoreCase("Daily")) {
-            return true;
+    public QueryPlanner getQueryPlanner() {
+        if (queryPlanner == null || plannerVersion != version) {
+            queryPlanner = new QueryPlanner(getTimetable());
+            plannerVersion = version;
         }
+        return queryPlanner;
+    }
 
-        // If filter is "Daily", only match Daily connections
-        if (filter.equalsIgnoreCase("Daily")) {
-            return connDays.equalsIgnoreCase("Daily");
+    public TransferPatterns getTransferPatterns() {
+        if (transferPatterns == null || patternsVersion != version) {
+            transferPatterns = TransferPatterns.build(getTimetable());
+            patternsVersion = version;
+        } else if (!patternAdds.isEmpty()) {
+            transferPatterns.extend(getTimetable(), patternAdds);
         }
+        patternAdds.clear();
+        return transferPatterns;
+    }
 
-        // Expand any day ranges in connection days (e.g., "Fri-Sun" →
-        // "Friday,Saturday,Sunday")
-        String expandedConnDays = expandDayRanges(connDays);
+    public List<Connection> findMatching(String depCity, String arrCity,
+            Integer depTime, Integer arrTime, String trainType, String daysOp) {
+        return run(planMatching(depCity, arrCity, depTime, arrTime, trainType, daysOp));
+    }
 
-        // Handle "Monday-Friday" filter from GUI
-        if (filter.equalsIgnoreCase("Monday-Friday")) {
-            // Match if connection is Daily, Mon-Fri, or any weekday
-            if (connDays.equalsIgnoreCase("Daily") || connDays.equalsIgnoreCase("Mon-Fri")) {
-                return true;
-            }
-            // Check if expanded connection days contain any weekday
-            String[] expandedDays = expandedConnDays.split(",");
-            for (String day : expandedDays) {
-                String normalized = normalizeDayName(day.trim());
-                if (normalized.equals("Monday") || normalized.equals("Tuesday") ||
-                        normalized.equals("Wednesday") || normalized.equals("Thursday") ||
-                        normalized.equals("Friday")) {
-                    return true;
-                }
-            }
-        }
+    // The plan findMatching uses for these filters, after running it, so the estimated and
+    // actual number of rows can be compared (see QueryPlan.toString)
+    public QueryPlan explainMatching(String depCity, String arrCity,
+            Integer depTime, Integer arrTime, String trainType, String daysOp) {
+        QueryPlan plan = planMatching(depCity, arrCity, depTime, arrTime, trainType, daysOp);
+        plan.setActualRows(run(plan).size());
+        return plan;
+    }
 
-        // Exact match
-        if (connDays.equalsIgnoreCase(filter)) {
-            return true;
-        }
+    private QueryPlan planMatching(String depCity, String arrCity,
+            Integer depTime, Integer arrTime, String trainType, String daysOp) {
+        return getQueryPlanner().plan(this, depCity, arrCity, depTime, arrTime, trainType, daysOp, store == null);
+    }
 
-        // Match "Mon-Fri" connection with individual weekdays or Mon-Fri filter
-        if (connDays.equalsIgnoreCase("Mon-Fri")) {
-            if (filter.equalsIgnoreCase("Mon-Fri") || filter.equalsIgnoreCase("Monday-Friday")) {
-                return true;
-            }
-            // Check against short and long day names
-            if (filter.equalsIgnoreCase("Mon") || filter.equalsIgnoreCase("Monday") ||
-                    filter.equalsIgnoreCase("Tue") || filter.equalsIgnoreCase("Tuesday") ||
-                    filter.equalsIgnoreCase("Wed") || filter.equalsIgnoreCase("Wednesday") ||
-                    filter.equalsIgnoreCase("Thu") || filter.equalsIgnoreCase("Thursday") ||
-                    filter.equalsIgnoreCase("Fri") || filter.equalsIgnoreCase("Friday")) {
-                return true;
+    // Read the candidates from the planned index and keep the ones passing the plan's filters.
+    // Every index keeps insertion order, so the result order does not depend on the plan
+    private List<Connection> run(QueryPlan plan) {
+        List<Connection> matches = new ArrayList<>();
+        if (store != null) {
+            switch (plan.getAccess()) {
+                case ALL:
+                    store.collectAll(plan::matches, matches);
+                    break;
+                case DEPARTURE_CITY:
+                    store.collectDeparting(plan.getAccessId(), plan::matches, matches);
+                    break;
+                case ARRIVAL_CITY:
+                    store.collectArriving(plan.getAccessId(), plan::matches, matches);
+                    break;
+                default:
+                    break;
             }
+            return matches;
         }
 
-        // Check if filter has multiple days: comma-separated values taken from the GUI
-        // checkboxes)
-        if (filter.contains(",")) {
-            String[] filterDaysList = filter.split(",");
-            String[] expandedDaysList = expandedConnDays.split(",");
-
-            for (String filterDay : filterDaysList) {
-                for (String connDay : expandedDaysList) {
-                    if (dayNamesMatch(connDay.trim(), filterDay.trim())) {
-                        return true; // Found overlap = matching
-                    }
-                }
-            }
+        List<Connection> candidates;
+        switch (plan.getAccess()) {
+            case ALL:
+                candidates = connections;
+                break;
+            case DEPARTURE_CITY:
+                candidates = byDepartureCity.get(plan.getAccessId());
+                break;
+            case ARRIVAL_CITY:
+                candidates = byArrivalCity.get(plan.getAccessId());
+                break;
+            case TRAIN_TYPE:
+                candidates = byTrain.get(plan.getAccessId());
+                break;
+            default:
+                candidates = Collections.emptyList();
+                break;
         }
 
-        else {
-            // Single day filter - check against expanded connection days
-            String[] expandedDaysList = expandedConnDays.split(",");
-            for (String connDay : expandedDaysList) {
-                if (dayNamesMatch(connDay.trim(), filter)) {
-                    return true;
-                }
+        for (Connection conn : candidates) {
+            if (plan.matches(conn)) {
+                matches.add(conn);
             }
         }
+        return matches;
+    }
 
-        return false; // No match
+    // Connections leaving depCity between fromMinute and toMinute (wrapping past midnight when
+    // fromMinute > toMinute), in departure order, with the other filters of findMatching.
+    // Uses a binary search on the city's departures instead of checking all of them
+    public List<Connection> findDepartures(String depCity, String arrCity, int fromMinute, int toMinute,
+            Integer arrTime, String trainType, String daysOp) {
+        return departures(idOrNone(findCity(depCity)), fromMinute, toMinute,
+                departureFilter(arrCity, arrTime, trainType, daysOp));
     }
 
-    // Expand day ranges like "Fri-Sun" to Friday, Saturday, Sunday for example
-    private String expandDayRanges(String days) {
-        String trimmed = days.trim();
+    // Same as above for a city the caller already has, without looking its name up
+    public List<Connection> findDepartures(City depCity, String arrCity, int fromMinute, int toMinute,
+            Integer arrTime, String trainType, String daysOp) {
+        return departures(idOf(depCity), fromMinute, toMinute,
+                departureFilter(arrCity, arrTime, trainType, daysOp));
+    }
 
-        // Handle Mon-Fri - will expand to all weekdays
-        if (trimmed.equalsIgnoreCase("Mon-Fri") || trimmed.equalsIgnoreCase("Monday-Friday")) {
-            return "Monday,Tuesday,Wednesday,Thursday,Friday";
-        }
+    // The planner's filters, all checked on each departure (the board replaces the index)
+    private Predicate<Connection> departureFilter(String arrCity, Integer arrTime, String trainType,
+            String daysOp) {
+        QueryPlan plan = getQueryPlanner().scan(this, null, arrCity, null, arrTime, trainType, daysOp);
+        return plan.getAccess() == QueryPlan.Access.NONE ? conn -> false : plan::matches;
+    }
 
-        // If theres no hypen there is no range
-        if (!trimmed.contains("-")) {
-            return trimmed;
+    private List<Connection> departures(int cityId, int fromMinute, int toMinute, Predicate<Connection> filter) {
+        if (store != null) {
+            List<Connection> result = new ArrayList<>();
+            if (cityId >= 0) {
+                store.collectDepartures(cityId, fromMinute, toMinute, filter, result);
+            }
+            return result;
         }
+        return departureBoard(cityId).between(fromMinute, toMinute, filter);
+    }
 
-        // Split on hyphen and trim each part should only give 2 parts
-        String[] parts = trimmed.split("-");
-        if (parts.length != 2) {
-            return trimmed; // Not valid
+    // Boards are built lazily, so this is synchronized for searches running on several threads
+    private synchronized DepartureBoard departureBoard(int cityId) {
+        if (boardsVersion != version) {
+            departureBoards.clear();
+            boardsVersion = version;
         }
 
-        // Convert to full day names (so like Fri to Friday)
-        String startDay = normalizeDayName(parts[0].trim());
-        String endDay = normalizeDayName(parts[1].trim());
-
-        String[] weekDays = { "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday" };
-        int startIdx = -1;
-        int endIdx = -1;
-
-        for (int i = 0; i < weekDays.length; i++) {
-            if (weekDays[i].equalsIgnoreCase(startDay))
-                startIdx = i;
-            if (weekDays[i].equalsIgnoreCase(endDay))
-                endIdx = i;
+        if (cityId < 0) {
+            return new DepartureBoard(Collections.emptyList());
         }
-
-        StringBuilder result = new StringBuilder();
-        if (startIdx <= endIdx) {
-            // Normal range the start will come beofre the end in the week (Fri-Sun is
-            // Fri=4, Sun=6, so 4 <= 6)
-            for (int i = startIdx; i <= endIdx; i++) {
-                if (result.length() > 0)
-                    result.append(",");
-                result.append(weekDays[i]);
-            }
+        while (departureBoards.size() <= cityId) {
+            departureBoards.add(null);
         }
-
-        else {
-            // Wrap-around for day ranges like Friday-Monday (5 <= 0)
-
-            // Add days from start to the end of the week
-            for (int i = startIdx; i < weekDays.length; i++) {
-                if (result.length() > 0)
-                    result.append(",");
-                result.append(weekDays[i]);
-            }
-
-            // After that, add the days from the start of the week to the end day
-            for (int i = 0; i <= endIdx; i++) {
-                if (result.length() > 0)
-                    result.append(",");
-                result.append(weekDays[i]);
-            }
+        DepartureBoard board = departureBoards.get(cityId);
+        if (board == null) {
+            board = new DepartureBoard(byDepartureCity.get(cityId));
+            departureBoards.set(cityId, board);
         }
+        return board;
+    }
 
-        return result.toString();
-    }
-
-    // Match day names
-    private boolean dayNamesMatch(String day1, String day2) {
-        if (day1.equalsIgnoreCase(day2)) {
-            return true;
-        }
-
-        // Normalize to full day names to compare
-        String normalized1 = normalizeDayName(day1);
-        String normalized2 = normalizeDayName(day2);
-
-        return normalized1.equalsIgnoreCase(normalized2);
-    }
-
-    // Normalize day names to full names
-    private String normalizeDayName(String day) {
-        String d = day.trim().toLowerCase();
-
-        switch (d) {
-            case "mon":
-                return "Monday";
-            case "monday":
-                return "Monday";
-            case "tue":
-                return "Tuesday";
-            case "tuesday":
-                return "Tuesday";
-            case "wed":
-                return "Wednesday";
-            case "wednesday":
-                return "Wednesday";
-            case "thu":
-                return "Thursday";
-            case "thursday":
-                return "Thursday";
-            case "fri":
-                return "Friday";
-            case "friday":
-                return "Friday";
-            case "sat":
-                return "Saturday";
-            case "saturday":
-                return "Saturday";
-            case "sun":
-                return "Sunday";
-            case "sunday":
-                return "Sunday";
-            default:
-                return day;
-        }
+    private static int idOrNone(City city) {
+        return city != null ? city.getId() : -1;
     }
 
     public void clear() {
+        if (store != null) {
+            store.delete();
+        }
+        store = null;
         connections.clear();
         cities.clear();
+        citiesByName.clear();
         trains.clear();
+        trainsByType.clear();
+        byDepartureCity.clear();
+        byArrivalCity.clear();
+        byTrain.clear();
+        version++;
 
         // Clear from database if available
         if (dbManager != null) {
@@ -0,0 +1,452 @@
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Contraction hierarchy over the city network for earliest-arrival queries. Cities are
+// contracted from least to most important; contracting a city replaces every pair of legs
+// through it (arriving and leaving inside the layover window) with a time-dependent shortcut
+// edge that remembers the timetable rows it stands for. Cities whose contraction would add too
+// many shortcuts are left uncontracted as the core. A query then only scans the edges going up
+// the hierarchy from the origin, the edges coming down to the destination and the core edges,
+// instead of the whole timetable.
+//
+// Layovers have a maximum as well as a minimum, so arriving earlier is not always better and
+// shortcuts cannot be pruned by witness searches: every valid pair is kept. Train type, days
+// of operation and start day filters are checked per row at query time. Shortcuts are built
+// up to MAX_LEGS legs, so the hierarchy answers queries with at most MAX_LEGS - 1 stops.
+public class ContractionHierarchy {
+    public static final int MAX_LEGS = 3;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int SCAN_DAYS = 2; // Same horizon as ConnectionScanRouter
+    private static final int CORE = Integer.MAX_VALUE;
+    private static final int MAX_SHORTCUTS_PER_EDGE = 4; // Cities adding more shortcuts than this per removed edge stay in the core
+
+    // Chain of timetable rows from one city to another, usable every day the rows run
+    private static class Edge {
+        private int from;
+        private int to;
+        private int[] rows;
+        private int[] dayOffsets; // Day each row departs on, relative to the first row
+        private int departure; // Minutes since midnight of the first row
+        private int duration; // First departure to last arrival, including layovers
+        private int id; // Position in departure order
+
+        private Edge(int from, int to, int[] rows, int[] dayOffsets, int departure, int duration) {
+            this.from = from;
+            this.to = to;
+            this.rows = rows;
+            this.dayOffsets = dayOffsets;
+            this.departure = departure;
+            this.duration = duration;
+        }
+
+        private int legs() {
+            return rows.length;
+        }
+    }
+
+    // Arrival at a city at the end of a chain of edges
+    private static class Label {
+        private Edge edge;
+        private int day; // Day the edge's first row departs, relative to the start day
+        private int arrival; // Minutes since midnight of the start day
+        private int legs;
+        private Label previous;
+
+        private Label(Edge edge, int day, int arrival, int legs, Label previous) {
+            this.edge = edge;
+            this.day = day;
+            this.arrival = arrival;
+            this.legs = legs;
+            this.previous = previous;
+        }
+    }
+
+    private Timetable timetable;
+    private int[] rank; // Contraction order, CORE for cities that are not contracted
+    private Edge[] edges; // Original legs and shortcuts, sorted by departure
+    private int[] coreEdges; // Ids of the edges between core cities, in departure order
+
+    // Edge fields by id, read in the query scan
+    private int[] edgeDeparture;
+    private int[] edgeDuration;
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private List<List<Edge>> outgoing;
+    private List<List<Edge>> incoming;
+    private int shortcutCount;
+    private int coreSize;
+
+    public ContractionHierarchy(Timetable timetable) {
+        this.timetable = timetable;
+        int cities = timetable.cityCount();
+        this.rank = new int[cities];
+        Arrays.fill(rank, CORE);
+
+        // Edges between cities that are not contracted yet, used while contracting
+        List<List<Edge>> remainingOut = new ArrayList<>();
+        List<List<Edge>> remainingIn = new ArrayList<>();
+        this.outgoing = new ArrayList<>();
+        this.incoming = new ArrayList<>();
+        for (int city = 0; city < cities; city++) {
+            remainingOut.add(new ArrayList<>());
+            remainingIn.add(new ArrayList<>());
+            outgoing.add(new ArrayList<>());
+            incoming.add(new ArrayList<>());
+        }
+
+        List<Edge> all = new ArrayList<>();
+        for (int row = 0; row < timetable.size(); row++) {
+            Edge edge = new Edge(timetable.fromCity(row), timetable.toCity(row), new int[] { row }, new int[] { 0 },
+                    timetable.departure(row), timetable.duration(row));
+            all.add(edge);
+            remainingOut.get(edge.from).add(edge);
+            remainingIn.get(edge.to).add(edge);
+        }
+
+        // Least important first: the city whose contraction adds the fewest edges overall
+        boolean[] contracted = new boolean[cities];
+        PriorityQueue<int[]> queue = new PriorityQueue<>(Comparator.comparingInt((int[] entry) -> entry[0]));
+        for (int city = 0; city < cities; city++) {
+            queue.add(new int[] { importance(city, remainingIn, remainingOut), city });
+        }
+
+        int order = 0;
+        while (!queue.isEmpty()) {
+            int city = queue.poll()[1];
+            if (contracted[city]) {
+                continue;
+            }
+
+            // Priorities change as neighbours are contracted, so check again before contracting
+            int current = importance(city, remainingIn, remainingOut);
+            if (!queue.isEmpty() && current > queue.peek()[0]) {
+                queue.add(new int[] { current, city });
+                continue;
+            }
+
+            List<Edge> shortcuts = shortcutsThrough(city, remainingIn, remainingOut);
+            int removed = remainingIn.get(city).size() + remainingOut.get(city).size();
+            if (shortcuts.size() > MAX_SHORTCUTS_PER_EDGE * Math.max(removed, 1)) {
+                // This and every city left would be at least as expensive: they form the core
+                break;
+            }
+
+            contracted[city] = true;
+            rank[city] = order++;
+            for (Edge edge : remainingIn.get(city)) {
+                remainingOut.get(edge.from).remove(edge);
+            }
+            for (Edge edge : remainingOut.get(city)) {
+                remainingIn.get(edge.to).remove(edge);
+            }
+            for (Edge shortcut : shortcuts) {
+                all.add(shortcut);
+                remainingOut.get(shortcut.from).add(shortcut);
+                remainingIn.get(shortcut.to).add(shortcut);
+            }
+            shortcutCount += shortcuts.size();
+        }
+        this.coreSize = cities - order;
+
+        edges = all.toArray(new Edge[0]);
+        Arrays.sort(edges, Comparator.comparingInt((Edge edge) -> edge.departure));
+        EdgeIds core = new EdgeIds();
+        edgeDeparture = new int[edges.length];
+        edgeDuration = new int[edges.length];
+        edgeFrom = new int[edges.length];
+        edgeTo = new int[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i].id = i;
+            edgeDeparture[i] = edges[i].departure;
+            edgeDuration[i] = edges[i].duration;
+            edgeFrom[i] = edges[i].from;
+            edgeTo[i] = edges[i].to;
+            outgoing.get(edges[i].from).add(edges[i]);
+            incoming.get(edges[i].to).add(edges[i]);
+            if (rank[edges[i].from] == CORE && rank[edges[i].to] == CORE) {
+                core.add(i);
+            }
+        }
+        this.coreEdges = Arrays.copyOf(core.ids, core.size);
+    }
+
+    public int getShortcutCount() {
+        return shortcutCount;
+    }
+
+    public int getCoreSize() {
+        return coreSize;
+    }
+
+    // Edge difference: shortcuts added minus edges removed by contracting the city
+    private int importance(int city, List<List<Edge>> remainingIn, List<List<Edge>> remainingOut) {
+        int shortcuts = 0;
+        for (Edge in : remainingIn.get(city)) {
+            for (Edge out : remainingOut.get(city)) {
+                if (in.from == city || out.to == city || out.to == in.from) {
+                    continue;
+                }
+                shortcuts += validDays(in, out).length;
+            }
+        }
+        return shortcuts - remainingIn.get(city).size() - remainingOut.get(city).size();
+    }
+
+    // Every chain arriving at city followed by one leaving it, within MAX_LEGS legs
+    private List<Edge> shortcutsThrough(int city, List<List<Edge>> remainingIn, List<List<Edge>> remainingOut) {
+        List<Edge> shortcuts = new ArrayList<>();
+        for (Edge in : remainingIn.get(city)) {
+            if (in.from == city) {
+                continue;
+            }
+            for (Edge out : remainingOut.get(city)) {
+                // A loop back to the same city needs at least 2 legs, plus one in and one out:
+                // more than MAX_LEGS, and trips never return to their origin
+                if (out.to == city || out.to == in.from) {
+                    continue;
+                }
+                for (int day : validDays(in, out)) {
+                    shortcuts.add(join(in, out, day));
+                }
+            }
+        }
+        return shortcuts;
+    }
+
+    // Days (relative to the first edge) on which the second edge can be caught after the first
+    private int[] validDays(Edge in, Edge out) {
+        if (in.legs() + out.legs() > MAX_LEGS) {
+            return new int[0];
+        }
+
+        int arrival = in.departure + in.duration;
+        int firstDay = Math.floorDiv(arrival + RailwaySystem.MIN_LAYOVER_MINUTES - out.departure + MINUTES_PER_DAY - 1,
+                MINUTES_PER_DAY);
+        int lastDay = Math.floorDiv(arrival + RailwaySystem.MAX_DAY_LAYOVER_MINUTES - out.departure, MINUTES_PER_DAY);
+        int lastOffset = out.dayOffsets[out.dayOffsets.length - 1];
+
+        // Rows departing after the scan horizon can never be part of a result
+        int days = 0;
+        int[] valid = new int[Math.max(lastDay - firstDay + 1, 0)];
+        for (int day = Math.max(firstDay, 0); day <= lastDay; day++) {
+            if (day + lastOffset < SCAN_DAYS) {
+                valid[days++] = day;
+            }
+        }
+        return Arrays.copyOf(valid, days);
+    }
+
+    private Edge join(Edge in, Edge out, int day) {
+        int legs = in.legs() + out.legs();
+        int[] rows = Arrays.copyOf(in.rows, legs);
+        int[] dayOffsets = Arrays.copyOf(in.dayOffsets, legs);
+        for (int i = 0; i < out.legs(); i++) {
+            rows[in.legs() + i] = out.rows[i];
+            dayOffsets[in.legs() + i] = out.dayOffsets[i] + day;
+        }
+        int arrival = day * MINUTES_PER_DAY + out.departure + out.duration;
+        return new Edge(in.from, out.to, rows, dayOffsets, in.departure, arrival - in.departure);
+    }
+
+    // Same query and result as ConnectionScanRouter.findEarliestArrival, for maxStops < MAX_LEGS
+    public List<Trip> findEarliestArrival(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, DayOfWeek startDay) {
+        List<Trip> trips = new ArrayList<>();
+
+        int origin = timetable.cityId(depCity);
+        int destination = timetable.cityId(arrCity);
+        if (origin < 0 || destination < 0 || origin == destination) {
+            return trips;
+        }
+
+        IntPredicate allowed = timetable.matching(trainType, daysOp);
+        int maxLegs = Math.min(maxStops + 1, MAX_LEGS);
+        int earliestDeparture = depTime != null ? depTime : 0;
+
+        // Upward and downward edges, merged with the core edges while scanning
+        EdgeIds ids = new EdgeIds();
+        boolean forwardCore = collect(origin, true, ids);
+        boolean backwardCore = collect(destination, false, ids);
+        int[] space = Arrays.copyOf(ids.ids, ids.size);
+        Arrays.sort(space); // Ids are in departure order
+        int[] core = forwardCore && backwardCore ? coreEdges : new int[0];
+
+        // labels[legs][city] holds the arrivals (by arrival time) reached with that many legs
+        List<List<TreeMap<Integer, Label>>> labels = new ArrayList<>();
+        for (int legs = 0; legs <= maxLegs; legs++) {
+            labels.add(new ArrayList<>(Collections.nCopies(timetable.cityCount(), null)));
+        }
+        Label best = null;
+
+        scan: for (int day = 0; day < SCAN_DAYS; day++) {
+            int i = 0;
+            int j = 0;
+            while (i < space.length || j < core.length) {
+                int id = j >= core.length || (i < space.length && space[i] < core[j]) ? space[i++] : core[j++];
+                int departure = day * MINUTES_PER_DAY + edgeDeparture[id];
+                if (departure < earliestDeparture) {
+                    continue;
+                }
+
+                // Edges are sorted, so nothing after this can arrive earlier
+                if (best != null && departure >= best.arrival) {
+                    break scan;
+                }
+
+                Edge edge = edges[id];
+                if (edge.legs() > maxLegs || !usable(edge, day, allowed, startDay, origin, destination)) {
+                    continue;
+                }
+
+                int from = edgeFrom[id];
+                int to = edgeTo[id];
+                int arrival = departure + edgeDuration[id];
+                Label reached = null;
+
+                if (day == 0 && from == origin) {
+                    reached = new Label(edge, day, arrival, edge.legs(), null);
+                } else {
+                    // Latest arrival at this city that still leaves enough time to transfer
+                    for (int legs = 1; legs + edge.legs() <= maxLegs && reached == null; legs++) {
+                        TreeMap<Integer, Label> arrivals = labels.get(legs).get(from);
+                        if (arrivals == null) {
+                            continue;
+                        }
+                        Map.Entry<Integer, Label> entry = arrivals
+                                .floorEntry(departure - RailwaySystem.MIN_LAYOVER_MINUTES);
+                        if (entry != null && entry.getKey() >= departure - RailwaySystem.MAX_DAY_LAYOVER_MINUTES) {
+                            reached = new Label(edge, day, arrival, legs + edge.legs(), entry.getValue());
+                        }
+                    }
+                }
+
+                if (reached == null) {
+                    continue;
+                }
+
+                if (to == destination) {
+                    if (arrTime != null && timetable.arrival(edge.rows[edge.legs() - 1]) > arrTime) {
+                        continue;
+                    }
+                    if (best == null || arrival < best.arrival) {
+                        best = reached;
+                    }
+                } else if (to != origin && reached.legs < maxLegs) {
+                    List<TreeMap<Integer, Label>> byCity = labels.get(reached.legs);
+                    if (byCity.get(to) == null) {
+                        byCity.set(to, new TreeMap<>());
+                    }
+                    byCity.get(to).putIfAbsent(arrival, reached);
+                }
+            }
+        }
+
+        if (best != null) {
+            trips.add(buildTrip(best, firstClass));
+        }
+        return trips;
+    }
+
+    // Walk up the hierarchy from start (along edges when forward, against them otherwise),
+    // adding every edge used. Core cities are not expanded; returns whether the core was reached.
+    // Any trip can be written as upward edges, core edges and downward edges, and an edge is
+    // either upward or downward, so none is added twice
+    private boolean collect(int start, boolean forward, EdgeIds ids) {
+        boolean[] visited = new boolean[rank.length];
+        int[] stack = new int[rank.length];
+        int size = 0;
+        stack[size++] = start;
+        visited[start] = true;
+        boolean reachedCore = false;
+
+        while (size > 0) {
+            int city = stack[--size];
+            if (rank[city] == CORE) {
+                reachedCore = true;
+                continue;
+            }
+            for (Edge edge : forward ? outgoing.get(city) : incoming.get(city)) {
+                int next = forward ? edge.to : edge.from;
+                if (rank[next] < rank[city]) {
+                    continue;
+                }
+                ids.add(edge.id);
+                if (!visited[next]) {
+                    visited[next] = true;
+                    stack[size++] = next;
+                }
+            }
+        }
+        return reachedCore;
+    }
+
+    private static class EdgeIds {
+        private int[] ids = new int[64];
+        private int size;
+
+        private void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    // Whether every row of the edge passes the filters when its first row leaves on day, and it
+    // does not pass through the origin or destination on the way (as in ConnectionScanRouter)
+    private boolean usable(Edge edge, int day, IntPredicate allowed, DayOfWeek startDay, int origin, int destination) {
+        for (int i = 0; i < edge.legs(); i++) {
+            int row = edge.rows[i];
+            int rowDay = day + edge.dayOffsets[i];
+            if (rowDay >= SCAN_DAYS) {
+                return false;
+            }
+            if (allowed != null && !allowed.test(row)) {
+                return false;
+            }
+            if (startDay != null && !timetable.runsOn(row, startDay.plus(rowDay))) {
+                return false;
+            }
+            if (i < edge.legs() - 1 && (timetable.toCity(row) == origin || timetable.toCity(row) == destination)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Unpack the edges back into timetable rows and build the Trip
+    private Trip buildTrip(Label last, boolean firstClass) {
+        List<Label> chain = new ArrayList<>();
+        for (Label label = last; label != null; label = label.previous) {
+            chain.add(label);
+        }
+
+        Trip trip = new Trip();
+        int transferMinutes = 0;
+        int previousArrival = -1;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            Edge edge = chain.get(i).edge;
+            for (int leg = 0; leg < edge.legs(); leg++) {
+                int row = edge.rows[leg];
+                int departure = (chain.get(i).day + edge.dayOffsets[leg]) * MINUTES_PER_DAY + timetable.departure(row);
+                trip.addConnection(timetable.connectionAt(row));
+                if (previousArrival >= 0) {
+                    transferMinutes += departure - previousArrival;
+                }
+                previousArrival = departure + timetable.duration(row);
+            }
+        }
+
+        trip.computeTotalsWithLayovers(firstClass, transferMinutes);
+        return trip;
+    }
+}
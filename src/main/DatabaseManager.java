@@ -2,12 +2,18 @@ import java.sql.*;
 import java.time.LocalTime;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DatabaseManager {
     private static final String DB_URL = "jdbc:sqlite:railway_system.db";
     private java.sql.Connection connection;
 
+    // Database IDs of the connections saved or loaded so far, so booking a trip does not
+    // query the connections table once per leg
+    private Map<ConnectionKey, Integer> connectionIds = new HashMap<>();
+
     public DatabaseManager() {
         try {
             Class.forName("org.sqlite.JDBC");
@@ -157,7 +163,7 @@ public class DatabaseManager {
                 "INSERT INTO connections (route_id, departure_city_id, arrival_city_id, " +
                         "departure_time, arrival_time, train_id, days_of_operation, " +
                         "first_class_price, second_class_price, is_next_day) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
 
         stmt.setString(1, conn.getRouteID());
         stmt.setInt(2, depCityId);
@@ -171,6 +177,12 @@ public class DatabaseManager {
         stmt.setInt(10, conn.isNextDay() ? 1 : 0);
 
         stmt.executeUpdate();
+
+        ResultSet generatedKeys = stmt.getGeneratedKeys();
+        if (generatedKeys.next()) {
+            connectionIds.putIfAbsent(conn.getKey(), generatedKeys.getInt(1));
+        }
+        generatedKeys.close();
         stmt.close();
     }
 
@@ -209,6 +221,7 @@ public class DatabaseManager {
                     train, daysOfOp, firstClassPrice, secondClassPrice, isNextDay);
 
             loadedConnections.add(connection);
+            connectionIds.putIfAbsent(connection.getKey(), rs.getInt("id"));
         }
 
         rs.close();
@@ -225,14 +238,47 @@ public class DatabaseManager {
         return count;
     }
 
+    // Highest connection id so far. Ids are AUTOINCREMENT, so together with the count this
+    // changes whenever connections are added or removed
+    public int getMaxConnectionId() throws SQLException {
+        Statement stmt = connection.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT MAX(id) as max_id FROM connections");
+        int maxId = rs.next() ? rs.getInt("max_id") : 0;
+        rs.close();
+        stmt.close();
+        return maxId;
+    }
+
+    // Database ID of a connection saved or loaded in this session, -1 if not known yet
+    public int getKnownConnectionId(ConnectionKey key) {
+        return connectionIds.getOrDefault(key, -1);
+    }
+
+    // Drop the cached IDs (the off-heap timetable does not keep them on the heap); IDs are
+    // looked up in the database again when a trip is booked
+    public void forgetConnectionIds() {
+        connectionIds.clear();
+    }
+
+    // Record the database ID of a connection loaded from somewhere else (the timetable snapshot)
+    public void rememberConnectionId(ConnectionKey key, int id) {
+        connectionIds.putIfAbsent(key, id);
+    }
+
     public void clearConnections() throws SQLException {
         Statement stmt = connection.createStatement();
         stmt.execute("DELETE FROM connections");
         stmt.close();
+        connectionIds.clear();
     }
 
     // FIND CONNECTION DB ID
     private int findConnectionDbId(Connection conn) throws SQLException {
+        Integer known = connectionIds.get(conn.getKey());
+        if (known != null) {
+            return known;
+        }
+
         PreparedStatement stmt = connection.prepareStatement(
                 "SELECT id FROM connections WHERE route_id = ? " +
                         "AND departure_time = ? AND arrival_time = ?");
@@ -249,6 +295,9 @@ public class DatabaseManager {
 
         rs.close();
         stmt.close();
+        if (id != -1) {
+            connectionIds.put(conn.getKey(), id);
+        }
         return id;
     }
 
@@ -0,0 +1,117 @@
+import java.time.DayOfWeek;
+import java.util.function.IntPredicate;
+
+// Days of operation compiled into a 7-bit mask (bit 0 = Monday ... bit 6 = Sunday),
+// so checking a day or comparing two sets of days is a single AND.
+// Accepts "Daily", single days, ranges ("Mon-Fri", "Fri-Mon" wraps around the weekend),
+// en/em dashes and comma-separated lists of any of these. Short and long day names both work.
+public final class DayMask {
+    public static final int NONE = 0;
+    public static final int DAILY = 0x7F;
+    public static final int WEEKDAYS = 0x1F;
+
+    private DayMask() {
+    }
+
+    public static int parse(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return NONE;
+        }
+        String s = raw.trim().toLowerCase()
+                .replace("–", "-").replace("—", "-"); // normalize en/em dash to hyphen
+
+        if (s.equals("daily")) {
+            return DAILY;
+        }
+
+        int mask = NONE;
+        for (String part : s.split(",")) {
+            String token = part.trim();
+            if (token.contains("-")) {
+                String[] range = token.split("-");
+                if (range.length == 2) {
+                    DayOfWeek start = parseDay(range[0]);
+                    DayOfWeek end = parseDay(range[1]);
+                    if (start != null && end != null) {
+                        mask |= range(start, end);
+                    }
+                }
+            } else {
+                DayOfWeek day = parseDay(token);
+                if (day != null) {
+                    mask |= of(day);
+                }
+            }
+        }
+        return mask;
+    }
+
+    // The days of operation filter of the searches, as a test on masks: "Daily" only matches
+    // connections running every day, anything else matches connections sharing at least one
+    // day with it. Null when daysOp is blank (no filter)
+    public static IntPredicate filter(String daysOp) {
+        if (daysOp == null || daysOp.isBlank()) {
+            return null;
+        }
+        if (dailyOnly(daysOp)) {
+            return mask -> mask == DAILY;
+        }
+        int days = parse(daysOp);
+        return mask -> (mask & days) != 0;
+    }
+
+    // What filter(daysOp) checks, for query plans: "= Daily" or "overlap Mon-Fri"
+    public static String describeFilter(String daysOp) {
+        return (dailyOnly(daysOp) ? "= " : "overlap ") + daysOp.trim();
+    }
+
+    private static boolean dailyOnly(String daysOp) {
+        return daysOp.trim().equalsIgnoreCase("Daily");
+    }
+
+    public static int of(DayOfWeek day) {
+        return 1 << (day.getValue() - 1);
+    }
+
+    public static boolean contains(int mask, DayOfWeek day) {
+        return (mask & of(day)) != 0;
+    }
+
+    // Days from start to end inclusive, wrapping past Sunday if needed
+    private static int range(DayOfWeek start, DayOfWeek end) {
+        int mask = NONE;
+        for (int k = 0; k < 7; k++) {
+            DayOfWeek day = start.plus(k);
+            mask |= of(day);
+            if (day == end) {
+                break;
+            }
+        }
+        return mask;
+    }
+
+    private static DayOfWeek parseDay(String token) {
+        String t = token.trim();
+        if (t.length() >= 3) {
+            t = t.substring(0, 3);
+        }
+        switch (t) {
+            case "mon":
+                return DayOfWeek.MONDAY;
+            case "tue":
+                return DayOfWeek.TUESDAY;
+            case "wed":
+                return DayOfWeek.WEDNESDAY;
+            case "thu":
+                return DayOfWeek.THURSDAY;
+            case "fri":
+                return DayOfWeek.FRIDAY;
+            case "sat":
+                return DayOfWeek.SATURDAY;
+            case "sun":
+                return DayOfWeek.SUNDAY;
+            default:
+                return null;
+        }
+    }
+}
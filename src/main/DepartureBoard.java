@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Connections leaving one city, sorted by departure time, so the ones leaving inside a
+// time window are found with a binary search instead of checking every departure
+public class DepartureBoard {
+    private static final int LAST_MINUTE = 24 * 60 - 1;
+
+    private Connection[] connections;
+    private int[] minutes;
+
+    public DepartureBoard(List<Connection> departures) {
+        this.connections = departures.toArray(new Connection[0]);
+        Arrays.sort(this.connections, Comparator.comparingInt(DepartureBoard::departureOf));
+
+        this.minutes = new int[connections.length];
+        for (int i = 0; i < connections.length; i++) {
+            minutes[i] = departureOf(connections[i]);
+        }
+    }
+
+    public int size() {
+        return connections.length;
+    }
+
+    // Departures between fromMinute and toMinute inclusive, in departure order. The window
+    // wraps past midnight when fromMinute > toMinute (e.g. 23:00 to 02:00)
+    public List<Connection> between(int fromMinute, int toMinute, Predicate<Connection> filter) {
+        List<Connection> result = new ArrayList<>();
+
+        if (fromMinute <= toMinute) {
+            collect(fromMinute, toMinute, filter, result);
+        } else {
+            collect(fromMinute, LAST_MINUTE, filter, result);
+            collect(0, toMinute, filter, result);
+        }
+        return result;
+    }
+
+    private void collect(int fromMinute, int toMinute, Predicate<Connection> filter, List<Connection> result) {
+        for (int i = firstAtOrAfter(fromMinute); i < connections.length && minutes[i] <= toMinute; i++) {
+            if (filter == null || filter.test(connections[i])) {
+                result.add(connections[i]);
+            }
+        }
+    }
+
+    // Index of the first departure at or after minute
+    private int firstAtOrAfter(int minute) {
+        int low = 0;
+        int high = minutes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (minutes[mid] < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int departureOf(Connection conn) {
+        return conn.getDepartureTime().getHour() * 60 + conn.getDepartureTime().getMinute();
+    }
+}
@@ -0,0 +1,28 @@
+// One departure from the origin in a profile search, with the best journeys that start with it
+public class DepartureOption {
+    private Connection firstConnection;
+    private Trip fastestTrip; // Earliest arrival
+    private Trip cheapestTrip; // Lowest price for the selected class
+
+    public DepartureOption(Connection firstConnection, Trip fastestTrip, Trip cheapestTrip) {
+        this.firstConnection = firstConnection;
+        this.fastestTrip = fastestTrip;
+        this.cheapestTrip = cheapestTrip;
+    }
+
+    public Connection getFirstConnection() {
+        return firstConnection;
+    }
+
+    public String getDepartureTime() {
+        return firstConnection.getDepartureTime().toString();
+    }
+
+    public Trip getFastestTrip() {
+        return fastestTrip;
+    }
+
+    public Trip getCheapestTrip() {
+        return cheapestTrip;
+    }
+}
@@ -0,0 +1,188 @@
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// One-to-all search: the earliest arrival and the cheapest fare from one origin to every other
+// city, from a single scan over the timetable (the same scan as ConnectionScanRouter, but
+// without a destination to stop at). Used to draw isochrone maps without one search per city.
+public class IsochroneRouter {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private Connections connections;
+
+    public IsochroneRouter(Connections connections) {
+        this.connections = connections;
+    }
+
+    // Arrival at a city at the end of a chain of legs
+    private static class Label {
+        private int row; // Timetable row of the leg
+        private int departure; // Minutes since midnight of the start day
+        private int arrival;
+        private double price;
+        private Label previous;
+
+        private Label(int row, int departure, int arrival, double price, Label previous) {
+            this.row = row;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.price = price;
+            this.previous = previous;
+        }
+    }
+
+    // Every city reachable from depCity leaving at or after depTime, with at most maxStops stops
+    // and, when maxDuration is given, arriving within maxDuration minutes of depTime. When arrTime
+    // is given the last leg into each city must arrive by then (clock time, as in searchConnections).
+    // Sorted by earliest arrival. Transfers keep the 30 min minimum and 540 min maximum layover
+    public List<ReachableCity> findReachable(String depCity, Integer depTime, Integer arrTime, String trainType,
+            String daysOp, boolean firstClass, int maxStops, DayOfWeek startDay, Integer maxDuration) {
+        List<ReachableCity> reachable = new ArrayList<>();
+
+        Timetable timetable = connections.getTimetable();
+        int origin = timetable.cityId(depCity);
+        if (origin < 0) {
+            return reachable;
+        }
+
+        IntPredicate allowed = timetable.matching(trainType, daysOp);
+        int maxLegs = maxStops + 1;
+        int earliestDeparture = depTime != null ? depTime : 0;
+        int latestArrival = maxDuration != null ? earliestDeparture + maxDuration : Integer.MAX_VALUE;
+
+        // labels[legs][city] maps an arrival time to the cheapest way of arriving then with that many legs
+        List<List<TreeMap<Integer, Label>>> labels = new ArrayList<>();
+        for (int legs = 0; legs <= maxLegs; legs++) {
+            labels.add(new ArrayList<>(Collections.nCopies(timetable.cityCount(), null)));
+        }
+        Label[] earliest = new Label[timetable.cityCount()];
+        Label[] cheapest = new Label[timetable.cityCount()];
+
+        // Every leg can arrive up to a day after it leaves and the next one can wait up to the
+        // maximum layover, so the last leg of a journey may leave several days after the first
+        int scanDays = 1 + (MINUTES_PER_DAY - 1 + (maxLegs - 1)
+                * (MINUTES_PER_DAY - 1 + RailwaySystem.MAX_DAY_LAYOVER_MINUTES)) / MINUTES_PER_DAY;
+
+        scan: for (int day = 0; day < scanDays; day++) {
+            DayOfWeek runDay = startDay != null ? startDay.plus(day) : null;
+
+            for (int row = 0; row < timetable.size(); row++) {
+                int departure = day * MINUTES_PER_DAY + timetable.departure(row);
+                if (departure < earliestDeparture) {
+                    continue;
+                }
+                // Rows are sorted, so everything after this arrives too late
+                if (departure >= latestArrival) {
+                    break scan;
+                }
+                if (allowed != null && !allowed.test(row)) {
+                    continue;
+                }
+                if (runDay != null && !timetable.runsOn(row, runDay)) {
+                    continue;
+                }
+
+                int from = timetable.fromCity(row);
+                int to = timetable.toCity(row);
+                int arrival = departure + timetable.duration(row);
+                double price = timetable.price(row, firstClass);
+                if (to == origin || arrival > latestArrival) {
+                    continue;
+                }
+
+                for (int legs = 1; legs <= maxLegs; legs++) {
+                    Label reached = null;
+                    if (legs == 1) {
+                        if (day == 0 && from == origin) {
+                            reached = new Label(row, departure, arrival, price, null);
+                        }
+                    } else {
+                        Label boarding = cheapestBoarding(labels.get(legs - 1).get(from), departure);
+                        if (boarding != null) {
+                            reached = new Label(row, departure, arrival, boarding.price + price, boarding);
+                        }
+                    }
+                    if (reached == null) {
+                        continue;
+                    }
+
+                    // Trips ending after arrTime are not kept as results, but can still be continued
+                    if (arrTime == null || timetable.arrival(row) <= arrTime) {
+                        if (earliest[to] == null || arrival < earliest[to].arrival
+                                || (arrival == earliest[to].arrival && reached.price < earliest[to].price)) {
+                            earliest[to] = reached;
+                        }
+                        if (cheapest[to] == null || reached.price < cheapest[to].price
+                                || (reached.price == cheapest[to].price && arrival < cheapest[to].arrival)) {
+                            cheapest[to] = reached;
+                        }
+                    }
+
+                    if (legs < maxLegs) {
+                        List<TreeMap<Integer, Label>> byCity = labels.get(legs);
+                        if (byCity.get(to) == null) {
+                            byCity.set(to, new TreeMap<>());
+                        }
+                        Label kept = byCity.get(to).get(arrival);
+                        if (kept == null || reached.price < kept.price) {
+                            byCity.get(to).put(arrival, reached);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int city = 0; city < timetable.cityCount(); city++) {
+            if (earliest[city] != null) {
+                String name = timetable.city(city).getName();
+                reachable.add(new ReachableCity(name, buildTrip(timetable, earliest[city], firstClass),
+                        earliest[city].arrival, buildTrip(timetable, cheapest[city], firstClass),
+                        cheapest[city].price));
+            }
+        }
+        reachable.sort(Comparator.comparingInt(ReachableCity::getEarliestArrival));
+        return reachable;
+    }
+
+    // Cheapest arrival that leaves enough time (but not too much) to catch a departure
+    private Label cheapestBoarding(TreeMap<Integer, Label> arrivals, int departure) {
+        if (arrivals == null) {
+            return null;
+        }
+
+        Label best = null;
+        for (Map.Entry<Integer, Label> entry : arrivals.subMap(departure - RailwaySystem.MAX_DAY_LAYOVER_MINUTES,
+                true, departure - RailwaySystem.MIN_LAYOVER_MINUTES, true).entrySet()) {
+            if (best == null || entry.getValue().price < best.price) {
+                best = entry.getValue();
+            }
+        }
+        return best;
+    }
+
+    // Turn a chain of labels back into a Trip
+    private Trip buildTrip(Timetable timetable, Label last, boolean firstClass) {
+        List<Label> chain = new ArrayList<>();
+        for (Label label = last; label != null; label = label.previous) {
+            chain.add(label);
+        }
+        Collections.reverse(chain);
+
+        Trip trip = new Trip();
+        int transferMinutes = 0;
+        for (int i = 0; i < chain.size(); i++) {
+            trip.addConnection(timetable.connectionAt(chain.get(i).row));
+            if (i > 0) {
+                transferMinutes += chain.get(i).departure - chain.get(i - 1).arrival;
+            }
+        }
+
+        trip.computeTotalsWithLayovers(firstClass, transferMinutes);
+        return trip;
+    }
+}
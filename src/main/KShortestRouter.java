@@ -0,0 +1,437 @@
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+// The k best loopless journeys by duration or price (Yen's algorithm), so a search can offer
+// the best route plus real alternatives instead of every combination. A journey is a chain of
+// timetable rows joined by layovers of 30 to 540 minutes, as in the other searches. After the
+// best journey, each next one is the cheapest "spur": it follows an earlier journey up to one
+// of its stops, then leaves with a train that none of the journeys sharing that beginning
+// took, without going back through a city it already passed.
+//
+// Spur searches are A* searches guided by one backward shortest-path tree per query: the cost
+// from every row to the destination with the day and stop limits left out. Leaving out limits
+// and removing trains only makes journeys more expensive, so the tree stays a lower bound for
+// every spur, and most spurs follow it straight to the destination.
+public class KShortestRouter {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int DAYS_PER_WEEK = 7;
+
+    private Connections connections;
+
+    // Rows arriving at each city: arriving[arrivingStart[c]] .. arriving[arrivingStart[c + 1] - 1],
+    // rebuilt when Connections changes
+    private int[] arrivingStart;
+    private int[] arriving;
+    private int arrivingVersion;
+
+    public KShortestRouter(Connections connections) {
+        this.connections = connections;
+        this.arrivingVersion = -1;
+    }
+
+    // Rows of a journey and its cost (minutes from first departure to last arrival, or price)
+    private static class Journey {
+        private int[] rows;
+        private double cost;
+        private int order; // Found order, so equal costs keep a stable ranking
+
+        private Journey(int[] rows, double cost, int order) {
+            this.rows = rows;
+            this.cost = cost;
+            this.order = order;
+        }
+    }
+
+    // Journey so far, ending with row. day is the day of the week the row leaves on, counted
+    // from the start day (always 0 without a start day). cities are the cities the spur itself
+    // has arrived at, so it can be kept from passing through one of them again
+    private static class Label {
+        private int row;
+        private int day;
+        private int legs;
+        private double cost;
+        private Label previous;
+        private BitSet cities;
+
+        private Label(int row, int day, int legs, double cost, Label previous, BitSet cities) {
+            this.row = row;
+            this.day = day;
+            this.legs = legs;
+            this.cost = cost;
+            this.previous = previous;
+            this.cities = cities;
+        }
+    }
+
+    // Search state of a label: labels in the same state can be continued the same way, so only
+    // the cheapest is expanded. The cities belong to the state because they limit where the
+    // journey may go next
+    private static class State {
+        private int row;
+        private int day;
+        private int legs;
+        private BitSet cities;
+
+        private State(Label label) {
+            this.row = label.row;
+            this.day = label.day;
+            this.legs = label.legs;
+            this.cities = label.cities;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof State)) {
+                return false;
+            }
+            State other = (State) obj;
+            return row == other.row && day == other.day && legs == other.legs && cities.equals(other.cities);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(row, day, legs, cities);
+        }
+    }
+
+    public List<Trip> findAlternatives(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, DayOfWeek startDay, int k,
+            boolean sortByPrice) {
+        List<Trip> trips = new ArrayList<>();
+
+        Timetable timetable = connections.getTimetable();
+        int origin = timetable.cityId(depCity);
+        int destination = timetable.cityId(arrCity);
+        if (origin < 0 || destination < 0 || origin == destination || k <= 0) {
+            return trips;
+        }
+
+        ensureArrivals(timetable);
+        Query query = new Query(timetable, origin, destination, depTime != null ? depTime : 0, arrTime,
+                timetable.matching(trainType, daysOp), firstClass, maxStops + 1, startDay, sortByPrice);
+
+        List<Journey> found = new ArrayList<>();
+        Set<List<Integer>> seen = new HashSet<>();
+        PriorityQueue<Journey> candidates = new PriorityQueue<>(
+                Comparator.comparingDouble((Journey j) -> j.cost).thenComparingInt(j -> j.order));
+
+        Journey best = query.spur(new int[0], 0, new HashSet<>(), found.size());
+        if (best == null) {
+            return trips;
+        }
+        found.add(best);
+        seen.add(key(best));
+
+        while (found.size() < k) {
+            Journey last = found.get(found.size() - 1);
+
+            // Leave the last journey after each of its first i legs
+            for (int i = 0; i < last.rows.length; i++) {
+                Set<Integer> taken = new HashSet<>();
+                for (Journey journey : found) {
+                    if (journey.rows.length > i && samePrefix(journey.rows, last.rows, i)) {
+                        taken.add(journey.rows[i]);
+                    }
+                }
+
+                Journey spur = query.spur(last.rows, i, taken, found.size() + candidates.size());
+                if (spur != null && seen.add(key(spur))) {
+                    candidates.add(spur);
+                }
+            }
+
+            if (candidates.isEmpty()) {
+                break;
+            }
+            found.add(candidates.poll());
+        }
+
+        for (Journey journey : found) {
+            trips.add(query.buildTrip(journey));
+        }
+        return trips;
+    }
+
+    private static boolean samePrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Integer> key(Journey journey) {
+        List<Integer> key = new ArrayList<>(journey.rows.length);
+        for (int row : journey.rows) {
+            key.add(row);
+        }
+        return key;
+    }
+
+    private void ensureArrivals(Timetable timetable) {
+        if (arrivingStart != null && arrivingVersion == connections.getVersion()) {
+            return;
+        }
+
+        int cities = timetable.cityCount();
+        int[] start = new int[cities + 1];
+        for (int row = 0; row < timetable.size(); row++) {
+            start[timetable.toCity(row) + 1]++;
+        }
+        for (int c = 0; c < cities; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] rows = new int[timetable.size()];
+        int[] next = Arrays.copyOf(start, cities);
+        for (int row = 0; row < timetable.size(); row++) {
+            rows[next[timetable.toCity(row)]++] = row;
+        }
+
+        arrivingStart = start;
+        arriving = rows;
+        arrivingVersion = connections.getVersion();
+    }
+
+    // Everything one findAlternatives call needs, with the shortest-path tree to the destination
+    private class Query {
+        private Timetable timetable;
+        private int origin;
+        private int destination;
+        private int earliestDeparture;
+        private Integer arrTime;
+        private IntPredicate allowed;
+        private boolean firstClass;
+        private int maxLegs;
+        private DayOfWeek startDay;
+        private boolean byPrice;
+        private Map<Integer, Double> toDestination; // Lower bound on the cost after each row that can get there
+
+        private Query(Timetable timetable, int origin, int destination, int earliestDeparture, Integer arrTime,
+                IntPredicate allowed, boolean firstClass, int maxLegs, DayOfWeek startDay, boolean byPrice) {
+            this.timetable = timetable;
+            this.origin = origin;
+            this.destination = destination;
+            this.earliestDeparture = earliestDeparture;
+            this.arrTime = arrTime;
+            this.allowed = allowed;
+            this.firstClass = firstClass;
+            this.maxLegs = maxLegs;
+            this.startDay = startDay;
+            this.byPrice = byPrice;
+            buildTree();
+        }
+
+        // Backward Dijkstra from the rows that end the journey at the destination. Only the rows
+        // it reaches are kept, so a query does not allocate per timetable row
+        private void buildTree() {
+            toDestination = new HashMap<>();
+
+            PriorityQueue<double[]> queue = new PriorityQueue<>(Comparator.comparingDouble(e -> e[0]));
+            for (int i = arrivingStart[destination]; i < arrivingStart[destination + 1]; i++) {
+                int row = arriving[i];
+                if (usable(row) && (arrTime == null || timetable.arrival(row) <= arrTime)) {
+                    toDestination.put(row, 0.0);
+                    queue.add(new double[] { 0, row });
+                }
+            }
+
+            Set<Integer> settled = new HashSet<>();
+            while (!queue.isEmpty()) {
+                double[] entry = queue.poll();
+                int row = (int) entry[1];
+                if (!settled.add(row)) {
+                    continue;
+                }
+
+                // Journeys end at the destination, they never continue from it
+                int city = timetable.fromCity(row);
+                if (city == destination) {
+                    continue;
+                }
+                for (int i = arrivingStart[city]; i < arrivingStart[city + 1]; i++) {
+                    int previous = arriving[i];
+                    if (settled.contains(previous) || !usable(previous)) {
+                        continue;
+                    }
+                    int wait = layover(previous, row);
+                    if (wait < 0) {
+                        continue;
+                    }
+                    double cost = entry[0] + step(row, wait);
+                    if (cost < bound(previous)) {
+                        toDestination.put(previous, cost);
+                        queue.add(new double[] { cost, previous });
+                    }
+                }
+            }
+        }
+
+        // Lower bound on the cost after row, infinite if it cannot get to the destination
+        private double bound(int row) {
+            return toDestination.getOrDefault(row, Double.POSITIVE_INFINITY);
+        }
+
+        // Best journey that starts with the first length rows of root, does not take any of the
+        // taken rows next and does not pass through the origin, a city of the root or a city of
+        // the spur twice. Null if there is none
+        private Journey spur(int[] root, int length, Set<Integer> taken, int order) {
+            boolean[] visited = new boolean[timetable.cityCount()];
+            visited[origin] = true;
+
+            Label rootLabel = null;
+            for (int i = 0; i < length; i++) {
+                int row = root[i];
+                rootLabel = rootLabel == null ? first(row) : next(rootLabel, row, layover(rootLabel.row, row));
+                visited[timetable.toCity(row)] = true;
+            }
+
+            PriorityQueue<Label> open = new PriorityQueue<>(
+                    Comparator.comparingDouble((Label l) -> l.cost + bound(l.row)));
+            Map<State, Double> best = new HashMap<>();
+            if (rootLabel == null) {
+                for (int i = timetable.firstDeparture(origin); i < timetable.endDeparture(origin); i++) {
+                    int row = timetable.departureRow(i);
+                    if (timetable.departure(row) >= earliestDeparture && !taken.contains(row)
+                            && canTake(row, 0, visited, null)) {
+                        offer(first(row), open, best);
+                    }
+                }
+            } else {
+                expand(rootLabel, taken, visited, open, best);
+            }
+
+            Set<State> closed = new HashSet<>();
+            while (!open.isEmpty()) {
+                Label label = open.poll();
+                if (!closed.add(new State(label))) {
+                    continue;
+                }
+                if (timetable.toCity(label.row) == destination) {
+                    return journey(label, order);
+                }
+                expand(label, null, visited, open, best);
+            }
+            return null;
+        }
+
+        private void expand(Label label, Set<Integer> taken, boolean[] visited, PriorityQueue<Label> open,
+                Map<State, Double> best) {
+            if (label.legs >= maxLegs) {
+                return;
+            }
+            int city = timetable.toCity(label.row);
+            for (int i = timetable.firstDeparture(city); i < timetable.endDeparture(city); i++) {
+                int row = timetable.departureRow(i);
+                int wait = layover(label.row, row);
+                if (wait < 0 || (taken != null && taken.contains(row))) {
+                    continue;
+                }
+                if (!canTake(row, label.day, visited, label)) {
+                    continue;
+                }
+                Label next = next(label, row, wait);
+                if (startDay == null || timetable.runsOn(row, startDay.plus(next.day))) {
+                    offer(next, open, best);
+                }
+            }
+        }
+
+        private void offer(Label label, PriorityQueue<Label> open, Map<State, Double> best) {
+            State state = new State(label);
+            Double known = best.get(state);
+            if (known == null || label.cost < known) {
+                best.put(state, label.cost);
+                open.add(label);
+            }
+        }
+
+        // Whether row can follow label (or start the journey when label is null) without going
+        // back to a city of the root or of the spur. Days are checked separately, except for
+        // first legs which leave on day 0
+        private boolean canTake(int row, int day, boolean[] visited, Label label) {
+            int city = timetable.toCity(row);
+            if (!usable(row) || Double.isInfinite(bound(row)) || visited[city]
+                    || (label != null && label.cities.get(city))) {
+                return false;
+            }
+            return label != null || startDay == null || timetable.runsOn(row, startDay.plus(day));
+        }
+
+        private boolean usable(int row) {
+            return (allowed == null || allowed.test(row)) && timetable.toCity(row) != origin;
+        }
+
+        // Label for taking row first, on day 0
+        private Label first(int row) {
+            BitSet cities = new BitSet();
+            cities.set(timetable.toCity(row));
+            return new Label(row, 0, 1, step(row, 0), null, cities);
+        }
+
+        // Label for taking row after label, wait minutes after it arrives
+        private Label next(Label label, int row, int wait) {
+            int day = label.day;
+            if (startDay != null) {
+                int offset = timetable.departure(label.row) + timetable.duration(label.row) + wait;
+                day = (day + offset / MINUTES_PER_DAY) % DAYS_PER_WEEK;
+            }
+            BitSet cities = (BitSet) label.cities.clone();
+            cities.set(timetable.toCity(row));
+            return new Label(row, day, label.legs + 1, label.cost + step(row, wait), label, cities);
+        }
+
+        // Cost of waiting wait minutes and then taking row
+        private double step(int row, int wait) {
+            return byPrice ? timetable.price(row, firstClass) : wait + timetable.duration(row);
+        }
+
+        // Minutes between arriving with first and leaving with second, -1 outside the layover window
+        private int layover(int first, int second) {
+            if (timetable.fromCity(second) != timetable.toCity(first)) {
+                return -1;
+            }
+            int wait = Math.floorMod(timetable.departure(second) - timetable.arrival(first), MINUTES_PER_DAY);
+            if (wait < RailwaySystem.MIN_LAYOVER_MINUTES || wait > RailwaySystem.MAX_DAY_LAYOVER_MINUTES) {
+                return -1;
+            }
+            return wait;
+        }
+
+        private Journey journey(Label last, int order) {
+            List<Integer> rows = new ArrayList<>();
+            for (Label label = last; label != null; label = label.previous) {
+                rows.add(0, label.row);
+            }
+            int[] result = new int[rows.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = rows.get(i);
+            }
+            return new Journey(result, last.cost, order);
+        }
+
+        private Trip buildTrip(Journey journey) {
+            Trip trip = new Trip();
+            int transferMinutes = 0;
+            for (int i = 0; i < journey.rows.length; i++) {
+                trip.addConnection(timetable.connectionAt(journey.rows[i]));
+                if (i > 0) {
+                    transferMinutes += layover(journey.rows[i - 1], journey.rows[i]);
+                }
+            }
+            trip.computeTotalsWithLayovers(firstClass, transferMinutes);
+            return trip;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// Timetable kept outside the Java heap: one fixed-width record per connection in a memory-mapped
+// file, plus the city indexes the searches need. Connection objects are only created when a
+// search asks for one (connection(record)) and are dropped again with the results, so heap use
+// no longer grows with the number of connections. Records are sorted by departure time, so
+// record numbers are also Timetable rows. Cities and trains stay in the symbol tables of
+// Connections and are referred to by id.
+public class MappedTimetableStore {
+    public static final String DEFAULT_FILE = "railway_system.timetable";
+
+    private static final int LAST_MINUTE = 24 * 60 - 1;
+
+    // Record layout
+    private static final int DEPARTURE = 0; // int, minutes since midnight
+    private static final int ARRIVAL = 4; // int, clock time of arrival
+    private static final int DURATION = 8; // int, minutes including the +1d flag
+    private static final int FROM_CITY = 12; // int
+    private static final int TO_CITY = 16; // int
+    private static final int TRAIN = 20; // int
+    private static final int DAYS = 24; // byte, DayMask bits
+    private static final int NEXT_DAY = 25; // byte
+    private static final int FIRST_CLASS = 28; // double
+    private static final int SECOND_CLASS = 36; // double
+    private static final int ROUTE_ID = 44; // int, offset of the string
+    private static final int DAYS_TEXT = 48; // int, offset of the string
+    private static final int RECORD = 52;
+
+    private Path path;
+    private MappedByteBuffer buffer;
+    private int size;
+    private City[] cities; // By id
+    private Train[] trains;
+
+    // Section offsets in the file (int arrays unless noted)
+    private int insertionOrder; // Records in the order the connections were added
+    private int cityStart; // Per departure city, records in departure order
+    private int byCity;
+    private int departingStart; // Per departure city, records in insertion order
+    private int departing;
+    private int arrivingStart; // Per arrival city, records in insertion order
+    private int arriving;
+
+    private MappedTimetableStore() {
+    }
+
+    // Write all connections to file and map it. Cities and trains must come from the symbol
+    // tables of connections. The file must not be mapped by another store: Windows cannot
+    // truncate a file while a mapping of it is alive
+    public static MappedTimetableStore create(String file, Connections connections, List<Connection> all)
+            throws IOException {
+        MappedTimetableStore store = new MappedTimetableStore();
+        store.path = Paths.get(file);
+        int n = all.size();
+        store.size = n;
+        store.cities = new City[connections.getCityCount()];
+        for (int id = 0; id < store.cities.length; id++) {
+            store.cities[id] = connections.getCity(id);
+        }
+        store.trains = new Train[connections.getTrainCount()];
+        for (int id = 0; id < store.trains.length; id++) {
+            store.trains[id] = connections.getTrain(id);
+        }
+
+        // Record number of each connection: stable sort by departure, as in Timetable.build
+        Integer[] byTime = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byTime[i] = i;
+        }
+        Arrays.sort(byTime, Comparator.comparingInt(i -> minutes(all.get(i).getDepartureTime())));
+        int[] recordOf = new int[n];
+        for (int record = 0; record < n; record++) {
+            recordOf[byTime[record]] = record;
+        }
+
+        // Route IDs and day strings are stored once each after the indexes
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        int stringBytes = 0;
+        for (Connection conn : all) {
+            for (String value : new String[] { conn.getRouteID(), conn.getDaysOfOperation() }) {
+                if (!strings.containsKey(value)) {
+                    strings.put(value, stringBytes);
+                    stringBytes += 4 + value.getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+        }
+
+        int cityCount = store.cities.length;
+        store.insertionOrder = n * RECORD;
+        store.cityStart = store.insertionOrder + 4 * n;
+        store.byCity = store.cityStart + 4 * (cityCount + 1);
+        store.departingStart = store.byCity + 4 * n;
+        store.departing = store.departingStart + 4 * (cityCount + 1);
+        store.arrivingStart = store.departing + 4 * n;
+        store.arriving = store.arrivingStart + 4 * (cityCount + 1);
+        int stringsStart = store.arriving + 4 * n;
+        long fileSize = (long) stringsStart + stringBytes;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Timetable too large for one mapped file");
+        }
+
+        try (FileChannel channel = FileChannel.open(store.path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            store.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
+        MappedByteBuffer buffer = store.buffer;
+
+        int[] fromCity = new int[n];
+        int[] toCity = new int[n];
+        for (int record = 0; record < n; record++) {
+            Connection conn = all.get(byTime[record]);
+            int base = record * RECORD;
+            fromCity[record] = connections.idOf(conn.getDepartureCity());
+            toCity[record] = connections.idOf(conn.getArrivalCity());
+            buffer.putInt(base + DEPARTURE, minutes(conn.getDepartureTime()));
+            buffer.putInt(base + ARRIVAL, minutes(conn.getArrivalTime()));
+            buffer.putInt(base + DURATION, conn.getDurationMinutes());
+            buffer.putInt(base + FROM_CITY, fromCity[record]);
+            buffer.putInt(base + TO_CITY, toCity[record]);
+            buffer.putInt(base + TRAIN, connections.idOf(conn.getTrain()));
+            buffer.put(base + DAYS, (byte) conn.getDayMask());
+            buffer.put(base + NEXT_DAY, (byte) (conn.isNextDay() ? 1 : 0));
+            buffer.putDouble(base + FIRST_CLASS, conn.getFirstClassPrice());
+            buffer.putDouble(base + SECOND_CLASS, conn.getSecondClassPrice());
+            buffer.putInt(base + ROUTE_ID, stringsStart + strings.get(conn.getRouteID()));
+            buffer.putInt(base + DAYS_TEXT, stringsStart + strings.get(conn.getDaysOfOperation()));
+        }
+
+        for (int i = 0; i < n; i++) {
+            buffer.putInt(store.insertionOrder + 4 * i, recordOf[i]);
+        }
+
+        // Departures in time order are the records in order; the other two indexes follow insertion order
+        writeIndex(buffer, store.cityStart, store.byCity, cityCount, fromCity, null);
+        writeIndex(buffer, store.departingStart, store.departing, cityCount, fromCity, recordOf);
+        writeIndex(buffer, store.arrivingStart, store.arriving, cityCount, toCity, recordOf);
+
+        for (Map.Entry<String, Integer> entry : strings.entrySet()) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            int offset = stringsStart + entry.getValue();
+            buffer.putInt(offset, bytes.length);
+            buffer.put(offset + 4, bytes);
+        }
+
+        return store;
+    }
+
+    // Counting sort of the records (taken in the order given, or record order when order is
+    // null) by city into start[city] .. start[city + 1]
+    private static void writeIndex(MappedByteBuffer buffer, int startOffset, int rowsOffset, int cityCount,
+            int[] cityOfRecord, int[] order) {
+        int n = cityOfRecord.length;
+        int[] start = new int[cityCount + 1];
+        for (int record = 0; record < n; record++) {
+            start[cityOfRecord[record] + 1]++;
+        }
+        for (int c = 0; c < cityCount; c++) {
+            start[c + 1] += start[c];
+        }
+        for (int c = 0; c <= cityCount; c++) {
+            buffer.putInt(startOffset + 4 * c, start[c]);
+        }
+
+        int[] next = Arrays.copyOf(start, cityCount);
+        for (int i = 0; i < n; i++) {
+            int record = order != null ? order[i] : i;
+            buffer.putInt(rowsOffset + 4 * next[cityOfRecord[record]]++, record);
+        }
+    }
+
+    // Removes the file once the store is no longer used. The mapping lives on until it is
+    // garbage collected, and where a mapped file cannot be deleted (Windows) it is removed
+    // when the program exits instead
+    public void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            path.toFile().deleteOnExit();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int departure(int record) {
+        return buffer.getInt(record * RECORD + DEPARTURE);
+    }
+
+    public int arrival(int record) {
+        return buffer.getInt(record * RECORD + ARRIVAL);
+    }
+
+    public int duration(int record) {
+        return buffer.getInt(record * RECORD + DURATION);
+    }
+
+    public int fromCity(int record) {
+        return buffer.getInt(record * RECORD + FROM_CITY);
+    }
+
+    public int toCity(int record) {
+        return buffer.getInt(record * RECORD + TO_CITY);
+    }
+
+    public int train(int record) {
+        return buffer.getInt(record * RECORD + TRAIN);
+    }
+
+    public int days(int record) {
+        return buffer.get(record * RECORD + DAYS);
+    }
+
+    public boolean runsOn(int record, DayOfWeek day) {
+        return DayMask.contains(days(record), day);
+    }
+
+    public double price(int record, boolean firstClass) {
+        return buffer.getDouble(record * RECORD + (firstClass ? FIRST_CLASS : SECOND_CLASS));
+    }
+
+    public String routeId(int record) {
+        return string(buffer.getInt(record * RECORD + ROUTE_ID));
+    }
+
+    // A new Connection for the record. Only the caller holds on to it
+    public Connection connection(int record) {
+        int base = record * RECORD;
+        int departure = buffer.getInt(base + DEPARTURE);
+        int arrival = buffer.getInt(base + ARRIVAL);
+        return new Connection(string(buffer.getInt(base + ROUTE_ID)), cities[buffer.getInt(base + FROM_CITY)],
+                cities[buffer.getInt(base + TO_CITY)], LocalTime.of(departure / 60, departure % 60),
+                LocalTime.of(arrival / 60, arrival % 60), trains[buffer.getInt(base + TRAIN)],
+                string(buffer.getInt(base + DAYS_TEXT)), buffer.getDouble(base + FIRST_CLASS),
+                buffer.getDouble(base + SECOND_CLASS), buffer.get(base + NEXT_DAY) != 0);
+    }
+
+    // Records leaving a city in departure order: departureRow(i) for firstDeparture(c) <= i < endDeparture(c)
+    public int firstDeparture(int city) {
+        return buffer.getInt(cityStart + 4 * city);
+    }
+
+    public int endDeparture(int city) {
+        return buffer.getInt(cityStart + 4 * (city + 1));
+    }
+
+    public int departureRow(int index) {
+        return buffer.getInt(byCity + 4 * index);
+    }
+
+    // Connections passing filter, in the order they were added: all of them, or only those
+    // leaving (or arriving at) one city
+    public void collectAll(Predicate<Connection> filter, List<Connection> result) {
+        for (int i = 0; i < size; i++) {
+            collect(buffer.getInt(insertionOrder + 4 * i), filter, result);
+        }
+    }
+
+    public int departingCount(int city) {
+        return buffer.getInt(departingStart + 4 * (city + 1)) - buffer.getInt(departingStart + 4 * city);
+    }
+
+    public void collectDeparting(int city, Predicate<Connection> filter, List<Connection> result) {
+        collectIndex(departingStart, departing, city, filter, result);
+    }
+
+    public int arrivingCount(int city) {
+        return buffer.getInt(arrivingStart + 4 * (city + 1)) - buffer.getInt(arrivingStart + 4 * city);
+    }
+
+    public void collectArriving(int city, Predicate<Connection> filter, List<Connection> result) {
+        collectIndex(arrivingStart, arriving, city, filter, result);
+    }
+
+    // Departures from a city between fromMinute and toMinute inclusive, in departure order,
+    // wrapping past midnight when fromMinute > toMinute (same as DepartureBoard.between)
+    public void collectDepartures(int city, int fromMinute, int toMinute, Predicate<Connection> filter,
+            List<Connection> result) {
+        if (fromMinute <= toMinute) {
+            collectWindow(city, fromMinute, toMinute, filter, result);
+        } else {
+            collectWindow(city, fromMinute, LAST_MINUTE, filter, result);
+            collectWindow(city, 0, toMinute, filter, result);
+        }
+    }
+
+    private void collectWindow(int city, int fromMinute, int toMinute, Predicate<Connection> filter,
+            List<Connection> result) {
+        int end = endDeparture(city);
+
+        // Binary search for the first departure at or after fromMinute
+        int low = firstDeparture(city);
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departure(departureRow(mid)) < fromMinute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        for (int i = low; i < end && departure(departureRow(i)) <= toMinute; i++) {
+            collect(departureRow(i), filter, result);
+        }
+    }
+
+    private void collectIndex(int startOffset, int rowsOffset, int city, Predicate<Connection> filter,
+            List<Connection> result) {
+        int end = buffer.getInt(startOffset + 4 * (city + 1));
+        for (int i = buffer.getInt(startOffset + 4 * city); i < end; i++) {
+            collect(buffer.getInt(rowsOffset + 4 * i), filter, result);
+        }
+    }
+
+    private void collect(int record, Predicate<Connection> filter, List<Connection> result) {
+        Connection conn = connection(record);
+        if (filter == null || filter.test(conn)) {
+            result.add(conn);
+        }
+    }
+
+    private String string(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int minutes(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+}
@@ -0,0 +1,197 @@
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+// Multi-criteria search that only keeps Pareto-optimal journeys: a journey is dropped when
+// another one is at least as good on total duration, price (for the selected class) and
+// number of stops, and better on one of them. Partial journeys are pruned the same way while
+// searching, so dominated combinations are never expanded into full trips.
+public class ParetoRouter {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private Connections connections;
+
+    public ParetoRouter(Connections connections) {
+        this.connections = connections;
+    }
+
+    // Partial journey ending at the arrival city of its last connection
+    private static class Label {
+        private int row; // Timetable row of the last leg
+        private int start; // Departure of the first leg, minutes since midnight of the start day
+        private int departure;
+        private int arrival;
+        private double price;
+        private int legs;
+        private Label previous;
+
+        private Label(int row, int start, int departure, int arrival, double price, int legs,
+                Label previous) {
+            this.row = row;
+            this.start = start;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.price = price;
+            this.legs = legs;
+            this.previous = previous;
+        }
+
+        private int duration() {
+            return arrival - start;
+        }
+
+        // At least as good on every criterion (for complete journeys)
+        private boolean covers(Label other) {
+            return duration() <= other.duration() && price <= other.price && legs <= other.legs;
+        }
+    }
+
+    public List<Trip> findParetoOptimal(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, DayOfWeek startDay) {
+        List<Trip> trips = new ArrayList<>();
+
+        Timetable timetable = connections.getTimetable();
+        int origin = timetable.cityId(depCity);
+        int destination = timetable.cityId(arrCity);
+        if (origin < 0 || destination < 0 || origin == destination) {
+            return trips;
+        }
+
+        // Rows passing the train type and days filters (null when there are none)
+        IntPredicate allowed = timetable.matching(trainType, daysOp);
+
+        List<Label> frontier = new ArrayList<>();
+        Map<Integer, Map<Integer, List<Label>>> bags = new HashMap<>();
+        int earliestDeparture = depTime != null ? depTime : 0;
+
+        // First leg: leave the origin on the start day
+        List<Label> current = new ArrayList<>();
+        for (int i = timetable.firstDeparture(origin); i < timetable.endDeparture(origin); i++) {
+            int row = timetable.departureRow(i);
+            int departure = timetable.departure(row);
+            if (departure < earliestDeparture || !runs(timetable, row, allowed, startDay, 0)) {
+                continue;
+            }
+            Label label = new Label(row, departure, departure, departure + timetable.duration(row),
+                    timetable.price(row, firstClass), 1, null);
+            extend(timetable, label, origin, destination, arrTime, frontier, bags, current);
+        }
+
+        // Each further round adds one leg to every surviving partial journey
+        for (int legs = 2; legs <= maxStops + 1 && !current.isEmpty(); legs++) {
+            List<Label> next = new ArrayList<>();
+
+            for (Label label : current) {
+                // A complete journey already beats this one, and extending it only makes it worse
+                if (isCovered(label, frontier)) {
+                    continue;
+                }
+
+                int city = timetable.toCity(label.row);
+                for (int i = timetable.firstDeparture(city); i < timetable.endDeparture(city); i++) {
+                    int row = timetable.departureRow(i);
+                    int earliest = label.arrival + RailwaySystem.MIN_LAYOVER_MINUTES;
+                    int departure = earliest + Math.floorMod(timetable.departure(row) - earliest, MINUTES_PER_DAY);
+                    if (departure > label.arrival + RailwaySystem.MAX_DAY_LAYOVER_MINUTES
+                            || !runs(timetable, row, allowed, startDay, departure / MINUTES_PER_DAY)) {
+                        continue;
+                    }
+
+                    Label extended = new Label(row, label.start, departure,
+                            departure + timetable.duration(row), label.price + timetable.price(row, firstClass),
+                            legs, label);
+                    extend(timetable, extended, origin, destination, arrTime, frontier, bags, next);
+                }
+            }
+            current = next;
+        }
+
+        frontier.sort(Comparator.comparingInt(Label::duration).thenComparingDouble(label -> label.price));
+        for (Label label : frontier) {
+            trips.add(buildTrip(timetable, label, firstClass));
+        }
+        return trips;
+    }
+
+    // Add a complete journey to the frontier, or keep a partial one if nothing dominates it
+    private void extend(Timetable timetable, Label label, int origin, int destination, Integer arrTime,
+            List<Label> frontier, Map<Integer, Map<Integer, List<Label>>> bags, List<Label> next) {
+        int city = timetable.toCity(label.row);
+
+        if (city == destination) {
+            if (arrTime != null && timetable.arrival(label.row) > arrTime) {
+                return;
+            }
+            for (Label other : frontier) {
+                if (other.covers(label)) {
+                    return;
+                }
+            }
+            frontier.removeIf(label::covers);
+            frontier.add(label);
+            return;
+        }
+
+        if (city == origin || isCovered(label, frontier)) {
+            return;
+        }
+
+        // Two partial journeys arriving at the same city at the same time can be continued
+        // in exactly the same ways, so the later start, lower price and fewer legs wins
+        List<Label> sameArrival = bags.computeIfAbsent(city, k -> new HashMap<>())
+                .computeIfAbsent(label.arrival, k -> new ArrayList<>());
+        for (Label other : sameArrival) {
+            if (other.start >= label.start && other.price <= label.price && other.legs <= label.legs) {
+                return;
+            }
+        }
+        sameArrival.add(label);
+        next.add(label);
+    }
+
+    private boolean isCovered(Label label, List<Label> frontier) {
+        for (Label other : frontier) {
+            if (other.covers(label)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Check the filters and that the row runs on the given day after the start day
+    private boolean runs(Timetable timetable, int row, IntPredicate allowed, DayOfWeek startDay, int day) {
+        if (allowed != null && !allowed.test(row)) {
+            return false;
+        }
+        if (startDay == null) {
+            return true;
+        }
+        return timetable.runsOn(row, startDay.plus(day));
+    }
+
+    // Turn a chain of labels back into a Trip
+    private Trip buildTrip(Timetable timetable, Label last, boolean firstClass) {
+        List<Label> chain = new ArrayList<>();
+        for (Label label = last; label != null; label = label.previous) {
+            chain.add(label);
+        }
+        Collections.reverse(chain);
+
+        Trip trip = new Trip();
+        int transferMinutes = 0;
+        for (int i = 0; i < chain.size(); i++) {
+            trip.addConnection(timetable.connectionAt(chain.get(i).row));
+            if (i > 0) {
+                transferMinutes += chain.get(i).departure - chain.get(i - 1).arrival;
+            }
+        }
+
+        trip.computeTotalsWithLayovers(firstClass, transferMinutes);
+        return trip;
+    }
+}
@@ -0,0 +1,193 @@
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Profile search (profile CSA): the best journey for every departure from the origin inside a
+// time window, in one pass. The timetable is scanned backwards from the latest departure, and
+// every city keeps the journeys to the destination that leave it at each time. A connection
+// then only has to look up the journeys leaving its arrival city inside the layover window, so
+// the work done for a later departure is reused by all the earlier ones.
+public class ProfileRouter {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int SCAN_DAYS = 2; // Departure day + the following day for overnight journeys
+
+    private Connections connections;
+
+    public ProfileRouter(Connections connections) {
+        this.connections = connections;
+    }
+
+    // Journey from the departure of a connection to the destination
+    private static class Journey {
+        private int row; // Timetable row of the first leg
+        private int departure; // Minutes since midnight of the start day
+        private int legArrival; // Arrival of the first leg
+        private int arrival; // Arrival at the destination
+        private double price;
+        private Journey next; // Rest of the journey, null at the destination
+
+        private Journey(int row, int departure, int legArrival, int arrival, double price, Journey next) {
+            this.row = row;
+            this.departure = departure;
+            this.legArrival = legArrival;
+            this.arrival = arrival;
+            this.price = price;
+            this.next = next;
+        }
+
+        private boolean isBetter(Journey other, boolean byPrice) {
+            if (other == null) {
+                return true;
+            }
+            if (byPrice) {
+                return price < other.price || (price == other.price && arrival < other.arrival);
+            }
+            return arrival < other.arrival || (arrival == other.arrival && price < other.price);
+        }
+    }
+
+    // For every connection leaving depCity between windowStart and windowEnd (minutes of the
+    // start day, windowStart <= windowEnd), the journey arriving earliest and the cheapest one,
+    // in departure order. Departures that cannot reach arrCity are left out. Transfers keep the
+    // 30 min minimum and 540 min maximum layover, as in the other searches
+    public List<DepartureOption> findProfile(String depCity, String arrCity, int windowStart, int windowEnd,
+            Integer arrTime, String trainType, String daysOp, boolean firstClass, int maxStops,
+            DayOfWeek startDay) {
+        List<DepartureOption> options = new ArrayList<>();
+
+        Timetable timetable = connections.getTimetable();
+        int origin = timetable.cityId(depCity);
+        int destination = timetable.cityId(arrCity);
+        if (origin < 0 || destination < 0 || origin == destination || windowStart > windowEnd) {
+            return options;
+        }
+
+        IntPredicate allowed = timetable.matching(trainType, daysOp);
+        TreeMap<Integer, Journey> fastest = scan(timetable, origin, destination, windowStart, windowEnd, arrTime,
+                allowed, firstClass, maxStops + 1, startDay, false);
+        TreeMap<Integer, Journey> cheapest = scan(timetable, origin, destination, windowStart, windowEnd, arrTime,
+                allowed, firstClass, maxStops + 1, startDay, true);
+
+        // Rows are sorted by departure, so the options come out in departure order
+        for (Map.Entry<Integer, Journey> entry : fastest.entrySet()) {
+            int row = entry.getKey();
+            options.add(new DepartureOption(timetable.connectionAt(row),
+                    buildTrip(timetable, entry.getValue(), firstClass),
+                    buildTrip(timetable, cheapest.get(row), firstClass)));
+        }
+        return options;
+    }
+
+    // One backward pass. Returns the best journey starting with each row that leaves the
+    // origin inside the window and can reach the destination, by row
+    private TreeMap<Integer, Journey> scan(Timetable timetable, int origin, int destination, int windowStart, int windowEnd,
+            Integer arrTime, IntPredicate allowed, boolean firstClass, int maxLegs, DayOfWeek startDay,
+            boolean byPrice) {
+        TreeMap<Integer, Journey> result = new TreeMap<>();
+
+        // profiles[legs][city] maps a departure time to the best journey leaving city then
+        // with at most that many legs
+        List<List<TreeMap<Integer, Journey>>> profiles = new ArrayList<>();
+        for (int legs = 0; legs <= maxLegs; legs++) {
+            profiles.add(new ArrayList<>(Collections.nCopies(timetable.cityCount(), null)));
+        }
+
+        for (int day = SCAN_DAYS - 1; day >= 0; day--) {
+            DayOfWeek runDay = startDay != null ? startDay.plus(day) : null;
+
+            for (int row = timetable.size() - 1; row >= 0; row--) {
+                int departure = day * MINUTES_PER_DAY + timetable.departure(row);
+                // No journey starts before the window, so no leg leaves before it either
+                if (departure < windowStart) {
+                    break;
+                }
+                if (allowed != null && !allowed.test(row)) {
+                    continue;
+                }
+                if (runDay != null && !timetable.runsOn(row, runDay)) {
+                    continue;
+                }
+
+                int from = timetable.fromCity(row);
+                int to = timetable.toCity(row);
+                if (from == destination) {
+                    continue;
+                }
+                int legArrival = departure + timetable.duration(row);
+                double price = timetable.price(row, firstClass);
+
+                Journey best = null;
+                for (int legs = 1; legs <= maxLegs; legs++) {
+                    Journey journey = null;
+                    if (to == destination) {
+                        if (arrTime == null || timetable.arrival(row) <= arrTime) {
+                            journey = new Journey(row, departure, legArrival, legArrival, price, null);
+                        }
+                    } else if (legs > 1 && to != origin) {
+                        Journey rest = bestLeaving(profiles.get(legs - 1).get(to), legArrival, byPrice);
+                        if (rest != null) {
+                            journey = new Journey(row, departure, legArrival, rest.arrival, price + rest.price, rest);
+                        }
+                    }
+                    if (journey == null) {
+                        continue;
+                    }
+                    best = journey;
+
+                    if (from != origin) {
+                        List<TreeMap<Integer, Journey>> byCity = profiles.get(legs);
+                        if (byCity.get(from) == null) {
+                            byCity.set(from, new TreeMap<>());
+                        }
+                        Journey kept = byCity.get(from).get(departure);
+                        if (journey.isBetter(kept, byPrice)) {
+                            byCity.get(from).put(departure, journey);
+                        }
+                    }
+                }
+
+                // With more legs allowed the journey can only get better, so the last one found is kept
+                if (from == origin && day == 0 && departure >= windowStart && departure <= windowEnd
+                        && best != null) {
+                    result.put(row, best);
+                }
+            }
+        }
+        return result;
+    }
+
+    // Best journey leaving a city inside the layover window after arriving at arrival
+    private Journey bestLeaving(TreeMap<Integer, Journey> profile, int arrival, boolean byPrice) {
+        if (profile == null) {
+            return null;
+        }
+
+        Journey best = null;
+        for (Journey journey : profile.subMap(arrival + RailwaySystem.MIN_LAYOVER_MINUTES, true,
+                arrival + RailwaySystem.MAX_DAY_LAYOVER_MINUTES, true).values()) {
+            if (journey.isBetter(best, byPrice)) {
+                best = journey;
+            }
+        }
+        return best;
+    }
+
+    // Turn a chain of journeys back into a Trip
+    private Trip buildTrip(Timetable timetable, Journey first, boolean firstClass) {
+        Trip trip = new Trip();
+        int transferMinutes = 0;
+        for (Journey journey = first; journey != null; journey = journey.next) {
+            trip.addConnection(timetable.connectionAt(journey.row));
+            if (journey.next != null) {
+                transferMinutes += journey.next.departure - journey.legArrival;
+            }
+        }
+
+        trip.computeTotalsWithLayovers(firstClass, transferMinutes);
+        return trip;
+    }
+}
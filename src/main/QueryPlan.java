@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+// How Connections.findMatching answers one query: the index it reads the candidates from and
+// the filters it checks on each candidate, most selective first. toString() is the "explain"
+// output, with the estimated number of rows next to the actual one once the query has run.
+public class QueryPlan {
+    public enum Access {
+        NONE("no rows (unknown city or train type)"),
+        ALL("full scan"),
+        DEPARTURE_CITY("departure city index"),
+        ARRIVAL_CITY("arrival city index"),
+        TRAIN_TYPE("train type index");
+
+        private final String description;
+
+        Access(String description) {
+            this.description = description;
+        }
+    }
+
+    // One filter checked on the candidates, with the share of all rows expected to pass it
+    public static class Filter {
+        private String description;
+        private double selectivity;
+        private Predicate<Connection> test;
+
+        public Filter(String description, double selectivity, Predicate<Connection> test) {
+            this.description = description;
+            this.selectivity = selectivity;
+            this.test = test;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public double getSelectivity() {
+            return selectivity;
+        }
+    }
+
+    private Access access;
+    private int accessId; // City or train id the index is read for
+    private String accessValue;
+    private int candidateRows;
+    private List<Filter> filters;
+    private double estimatedRows;
+    private int actualRows;
+
+    public QueryPlan(Access access, int accessId, String accessValue, int candidateRows, List<Filter> filters,
+            double estimatedRows) {
+        this.access = access;
+        this.accessId = accessId;
+        this.accessValue = accessValue;
+        this.candidateRows = candidateRows;
+        this.filters = new ArrayList<>(filters);
+        this.estimatedRows = estimatedRows;
+        this.actualRows = -1;
+    }
+
+    // Whether a candidate passes every filter, checked in plan order
+    public boolean matches(Connection conn) {
+        for (Filter filter : filters) {
+            if (!filter.test.test(conn)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Access getAccess() {
+        return access;
+    }
+
+    public int getAccessId() {
+        return accessId;
+    }
+
+    public int getCandidateRows() {
+        return candidateRows;
+    }
+
+    public List<Filter> getFilters() {
+        return new ArrayList<>(filters);
+    }
+
+    public double getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    // -1 until the query has run
+    public int getActualRows() {
+        return actualRows;
+    }
+
+    public void setActualRows(int actualRows) {
+        this.actualRows = actualRows;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Access: ").append(access.description);
+        if (accessValue != null) {
+            sb.append(" (").append(accessValue).append(")");
+        }
+        sb.append(", ").append(candidateRows).append(" candidate rows\n");
+
+        if (filters.isEmpty()) {
+            sb.append("Filters: none\n");
+        } else {
+            sb.append("Filters, in order:\n");
+            for (Filter filter : filters) {
+                sb.append(String.format("  %-32s est. %5.1f%% of rows pass%n", filter.description,
+                        filter.selectivity * 100));
+            }
+        }
+
+        sb.append(String.format("Estimated rows: %.1f", estimatedRows));
+        if (actualRows >= 0) {
+            sb.append(", actual rows: ").append(actualRows);
+        }
+        return sb.toString();
+    }
+}
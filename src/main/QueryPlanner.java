@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// Chooses how findMatching runs a query from statistics on the timetable: rows per departure
+// city, arrival city, train type and day mask, and how many rows depart or arrive before each
+// minute of the day. The index with the fewest candidates is read (or everything, when no
+// indexed filter is set), and the remaining filters are checked most selective first so most
+// candidates are rejected by the first check. Filters are assumed to be independent when
+// estimating the number of rows. Built once per timetable version.
+public class QueryPlanner {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private int rows;
+    private int[] departingCount; // By city id
+    private int[] arrivingCount;
+    private int[] trainCount; // By train id
+    private int[] daysCount; // By DayMask value
+    private int[] departingBefore; // [m] = rows departing before minute m
+    private int[] arrivingBefore;
+
+    public QueryPlanner(Timetable timetable) {
+        this.rows = timetable.size();
+        this.departingCount = new int[timetable.cityCount()];
+        this.arrivingCount = new int[timetable.cityCount()];
+        this.daysCount = new int[DayMask.DAILY + 1];
+        this.departingBefore = new int[MINUTES_PER_DAY + 1];
+        this.arrivingBefore = new int[MINUTES_PER_DAY + 1];
+
+        int trains = 0;
+        for (int row = 0; row < rows; row++) {
+            trains = Math.max(trains, timetable.train(row) + 1);
+        }
+        this.trainCount = new int[trains];
+
+        for (int row = 0; row < rows; row++) {
+            departingCount[timetable.fromCity(row)]++;
+            arrivingCount[timetable.toCity(row)]++;
+            trainCount[timetable.train(row)]++;
+            daysCount[timetable.days(row)]++;
+            departingBefore[timetable.departure(row) + 1]++;
+            arrivingBefore[timetable.arrival(row) + 1]++;
+        }
+        for (int m = 0; m < MINUTES_PER_DAY; m++) {
+            departingBefore[m + 1] += departingBefore[m];
+            arrivingBefore[m + 1] += arrivingBefore[m];
+        }
+    }
+
+    // Plan for findMatching with these filters. trainIndex says whether the connections are
+    // also indexed by train type (not the case in the off-heap store)
+    public QueryPlan plan(Connections connections, String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean trainIndex) {
+        return plan(connections, depCity, arrCity, depTime, arrTime, trainType, daysOp, true, trainIndex);
+    }
+
+    // Plan that reads no index and checks every filter, for callers that pick the candidates
+    // themselves (findDepartures reads them from a departure board)
+    public QueryPlan scan(Connections connections, String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp) {
+        return plan(connections, depCity, arrCity, depTime, arrTime, trainType, daysOp, false, false);
+    }
+
+    private QueryPlan plan(Connections connections, String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean cityIndexes, boolean trainIndex) {
+        boolean depFilter = depCity != null && !depCity.trim().isEmpty();
+        boolean arrFilter = arrCity != null && !arrCity.trim().isEmpty();
+        boolean trainFilter = trainType != null && !trainType.trim().isEmpty();
+        IntPredicate daysFilter = DayMask.filter(daysOp);
+
+        // Names are resolved to ids once (case-insensitive), -1 when nothing has that name
+        City depCityObject = depFilter ? connections.findCity(depCity) : null;
+        City arrCityObject = arrFilter ? connections.findCity(arrCity) : null;
+        Train train = trainFilter ? connections.findTrain(trainType) : null;
+        int depId = depCityObject != null ? depCityObject.getId() : -1;
+        int arrId = arrCityObject != null ? arrCityObject.getId() : -1;
+        int trainId = train != null ? train.getId() : -1;
+
+        if ((depFilter && depId < 0) || (arrFilter && arrId < 0) || (trainFilter && trainId < 0)) {
+            return new QueryPlan(QueryPlan.Access.NONE, -1, null, 0, new ArrayList<>(), 0);
+        }
+
+        // Cheapest index: the one with the fewest rows to check
+        QueryPlan.Access access = QueryPlan.Access.ALL;
+        int accessId = -1;
+        String accessValue = null;
+        int candidates = rows;
+        if (depFilter && cityIndexes && count(departingCount, depId) < candidates) {
+            access = QueryPlan.Access.DEPARTURE_CITY;
+            accessId = depId;
+            accessValue = depCityObject.getName();
+            candidates = count(departingCount, depId);
+        }
+        if (arrFilter && cityIndexes && count(arrivingCount, arrId) < candidates) {
+            access = QueryPlan.Access.ARRIVAL_CITY;
+            accessId = arrId;
+            accessValue = arrCityObject.getName();
+            candidates = count(arrivingCount, arrId);
+        }
+        if (trainFilter && trainIndex && count(trainCount, trainId) < candidates) {
+            access = QueryPlan.Access.TRAIN_TYPE;
+            accessId = trainId;
+            accessValue = train.getType();
+            candidates = count(trainCount, trainId);
+        }
+
+        // Every filter the index does not already guarantee
+        List<QueryPlan.Filter> filters = new ArrayList<>();
+        if (depFilter && access != QueryPlan.Access.DEPARTURE_CITY) {
+            filters.add(new QueryPlan.Filter("departure city = " + depCityObject.getName(),
+                    share(count(departingCount, depId)),
+                    conn -> connections.idOf(conn.getDepartureCity()) == depId));
+        }
+        if (arrFilter && access != QueryPlan.Access.ARRIVAL_CITY) {
+            filters.add(new QueryPlan.Filter("arrival city = " + arrCityObject.getName(),
+                    share(count(arrivingCount, arrId)),
+                    conn -> connections.idOf(conn.getArrivalCity()) == arrId));
+        }
+        if (depTime != null) {
+            int from = Math.max(0, Math.min(MINUTES_PER_DAY, depTime));
+            filters.add(new QueryPlan.Filter("departure >= " + clock(depTime),
+                    share(rows - departingBefore[from]),
+                    conn -> minutes(conn.getDepartureTime()) >= depTime));
+        }
+        if (arrTime != null) {
+            int to = Math.max(0, Math.min(MINUTES_PER_DAY, arrTime + 1));
+            filters.add(new QueryPlan.Filter("arrival <= " + clock(arrTime),
+                    share(arrivingBefore[to]),
+                    conn -> minutes(conn.getArrivalTime()) <= arrTime));
+        }
+        if (trainFilter && access != QueryPlan.Access.TRAIN_TYPE) {
+            filters.add(new QueryPlan.Filter("train type = " + train.getType(),
+                    share(count(trainCount, trainId)),
+                    conn -> connections.idOf(conn.getTrain()) == trainId));
+        }
+        if (daysFilter != null) {
+            int matching = 0;
+            for (int mask = 0; mask <= DayMask.DAILY; mask++) {
+                if (daysFilter.test(mask)) {
+                    matching += daysCount[mask];
+                }
+            }
+            filters.add(new QueryPlan.Filter("days " + DayMask.describeFilter(daysOp), share(matching),
+                    conn -> daysFilter.test(conn.getDayMask())));
+        }
+
+        // Stable sort, so equally selective filters keep the order above
+        filters.sort(Comparator.comparingDouble(QueryPlan.Filter::getSelectivity));
+
+        double estimated = candidates;
+        for (QueryPlan.Filter filter : filters) {
+            estimated *= filter.getSelectivity();
+        }
+        return new QueryPlan(access, accessId, accessValue, candidates, filters, estimated);
+    }
+
+    private static int count(int[] counts, int id) {
+        return id >= 0 && id < counts.length ? counts[id] : 0;
+    }
+
+    private double share(int matching) {
+        return rows > 0 ? (double) matching / rows : 0;
+    }
+
+    private static int minutes(java.time.LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    private static String clock(int minutes) {
+        return String.format("%02d:%02d", minutes / 60, minutes % 60);
+    }
+}
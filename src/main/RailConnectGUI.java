@@ -1,11 +1,8 @@
 
 // Java standard library imports
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.time.DayOfWeek;
 
 // JavaFX imports
@@ -32,6 +29,8 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 public class RailConnectGUI extends Application {
+    private static final int RESULTS_PAGE_SIZE = 50; // Trips shown per "Show More"
+
     private RailwaySystem system;
     private Label statusLabel;
 
@@ -63,6 +62,8 @@ public class RailConnectGUI extends Application {
 
     private Trip selectedTripForBooking;
     private List<Trip> currentSearchResults;
+    private TripPages pendingResults; // Rest of the ranked results, shown when "Show More" is clicked
+    private Button showMoreButton;
     private TripCollection tripCollection; // Collection for storing booked trips
 
     public void start(Stage primaryStage) {
@@ -161,7 +162,10 @@ public class RailConnectGUI extends Application {
         maxStopsCombo.getItems().addAll(
                 "Max 0 Stops",
                 "Max 1 Stop",
-                "Max 2 Stops");
+                "Max 2 Stops",
+                "Max 3 Stops",
+                "Max 4 Stops",
+                "Max 5 Stops");
         maxStopsCombo.setValue("Max 2 Stops");
         maxStopsCombo.setMaxWidth(Double.MAX_VALUE);
 
@@ -173,7 +177,8 @@ public class RailConnectGUI extends Application {
         sortCombo = new ComboBox<>();
         sortCombo.getItems().addAll(
                 "Sort by Duration",
-                "Sort by Price");
+                "Sort by Price",
+                "Best Options Only");
         sortCombo.setValue("Sort by Duration");
         sortCombo.setMaxWidth(Double.MAX_VALUE);
 
@@ -280,7 +285,11 @@ public class RailConnectGUI extends Application {
             }
         });
 
-        bookingControls.getChildren().addAll(tripNumLabel, tripNumField, bookButton);
+        showMoreButton = new Button("Show More");
+        showMoreButton.setDisable(true);
+        showMoreButton.setOnAction(e -> showMoreResults());
+
+        bookingControls.getChildren().addAll(tripNumLabel, tripNumField, bookButton, showMoreButton);
 
         resultsPanel.getChildren().addAll(resultsTitle, resultsArea, bookingControls);
         root.setCenter(resultsPanel);
@@ -378,43 +387,48 @@ public class RailConnectGUI extends Application {
         try {
             statusLabel.setText("Searching...");
 
-            // Convert max stops selection to integer
-            int maxStopsCount = 2;
-            if (maxStops.equals("Max 0 Stops")) {
-                maxStopsCount = 0;
-            } else if (maxStops.equals("Max 1 Stop")) {
-                maxStopsCount = 1;
-            }
+            // Convert max stops selection to integer ("Max 3 Stops" -> 3)
+            int maxStopsCount = Integer.parseInt(maxStops.replaceAll("\\D", ""));
 
             DayOfWeek startDay = startDayCombo.getValue();
             this.lastSelectedStartDay = startDay;
-            // Call search with all parameters
-            List<Trip> trips = system.searchConnections(
-                    depCity.isEmpty() ? null : depCity,
-                    arrCity.isEmpty() ? null : arrCity,
-                    depTime.isEmpty() ? null : depTime,
-                    arrTime.isEmpty() ? null : arrTime,
-                    trainType.isEmpty() ? null : trainType,
-                    days,
-                    firstClass,
-                    maxStopsCount,
-                    startDay);
-
-            // Sort trips based on selected option
             String sortOption = sortCombo.getValue();
-            if (sortOption.equals("Sort by Duration")) {
-                trips.sort(Comparator.comparingInt(Trip::getTotalDurationMinutes));
-            } else if (sortOption.equals("Sort by Price")) {
-                trips.sort((trip1, trip2) -> {
-                    double price1 = firstClass ? trip1.getTotalFirstClassPrice() : trip1.getTotalSecondClassPrice();
-                    double price2 = firstClass ? trip2.getTotalFirstClassPrice() : trip2.getTotalSecondClassPrice();
-                    return Double.compare(price1, price2);
-                });
+
+            // Call search with all parameters
+            List<Trip> trips;
+            if (sortOption.equals("Best Options Only")) {
+                // Only trips not beaten on duration, price and stops at once (already sorted)
+                trips = system.searchParetoOptimal(
+                        depCity.isEmpty() ? null : depCity,
+                        arrCity.isEmpty() ? null : arrCity,
+                        depTime.isEmpty() ? null : depTime,
+                        arrTime.isEmpty() ? null : arrTime,
+                        trainType.isEmpty() ? null : trainType,
+                        days,
+                        firstClass,
+                        maxStopsCount,
+                        startDay);
+                pendingResults = null;
+            } else {
+                // Already ranked by duration or price; later pages are searched for when shown
+                pendingResults = system.pageConnections(
+                        depCity.isEmpty() ? null : depCity,
+                        arrCity.isEmpty() ? null : arrCity,
+                        depTime.isEmpty() ? null : depTime,
+                        arrTime.isEmpty() ? null : arrTime,
+                        trainType.isEmpty() ? null : trainType,
+                        days,
+                        firstClass,
+                        maxStopsCount,
+                        startDay,
+                        sortOption.equals("Sort by Price"),
+                        RESULTS_PAGE_SIZE);
+                trips = pendingResults.next(RESULTS_PAGE_SIZE);
             }
 
             // Display results
             showResults(trips);
-            statusLabel.setText("Found " + trips.size() + " trip(s)");
+            statusLabel.setText((hasMoreResults() ? "Showing first " : "Found ") + trips.size() + " trip(s)");
 
         } catch (Exception e) {
             statusLabel.setText("Search error: " + e.getMessage());
@@ -425,8 +439,25 @@ public class RailConnectGUI extends Application {
         }
     }
 
+    // Append the next page of the current search to the trips already shown
+    private void showMoreResults() {
+        if (!hasMoreResults()) {
+            return;
+        }
+
+        List<Trip> trips = new ArrayList<>(currentSearchResults);
+        trips.addAll(pendingResults.next(RESULTS_PAGE_SIZE));
+        showResults(trips);
+        statusLabel.setText((hasMoreResults() ? "Showing first " : "Found ") + trips.size() + " trip(s)");
+    }
+
+    private boolean hasMoreResults() {
+        return pendingResults != null && pendingResults.mayHaveMore();
+    }
+
     private void showResults(List<Trip> trips) {
         this.currentSearchResults = trips;
+        showMoreButton.setDisable(!hasMoreResults());
 
         // Clear the results area
         resultsArea.clear();
@@ -436,7 +467,8 @@ public class RailConnectGUI extends Application {
         } else {
             StringBuilder sb = new StringBuilder();
             sb.append("═══════════════════════════════════════════════════════════════════════════════\n");
-            sb.append(String.format("                    FOUND %d TRIP(S)\n", trips.size()));
+            sb.append(String.format(hasMoreResults() ? "                SHOWING FIRST %d TRIP(S)\n"
+                    : "                    FOUND %d TRIP(S)\n", trips.size()));
             sb.append("═══════════════════════════════════════════════════════════════════════════════\n\n");
             sb.append("Enter trip number below to book.\n\n");
 
@@ -488,8 +520,6 @@ public class RailConnectGUI extends Application {
                     if (i < trip.getConnections().size() - 1) {
                         Connection nextConn = trip.getConnections().get(i + 1);
 
-                        // int transferTime = layoverMinutesAcrossDays(conn, nextConn,
-                        // currentArrivalDay);
                         int transferTime = system.calculateTransferTime(conn, nextConn);
                         totalTransferTime += transferTime;
                         sb.append("     Transfer time (including days wait): " + formatDuration(transferTime) + "\n");
@@ -540,6 +570,8 @@ public class RailConnectGUI extends Application {
         sortCombo.setValue("Sort by Duration");
         firstClassCheck.setSelected(false);
         resultsArea.clear();
+        pendingResults = null;
+        showMoreButton.setDisable(true);
         statusLabel.setText("Ready. Enter search criteria.");
     }
 
@@ -554,81 +586,6 @@ public class RailConnectGUI extends Application {
         }
     }
 
-    // creates a set of days from the day range
-    private Set<DayOfWeek> parseDaysOfOperation(String daysOpRaw) {
-        Set<DayOfWeek> out = new HashSet<>();
-        if (daysOpRaw == null || daysOpRaw.isBlank())
-            return out;
-
-        // Normalize common dash characters and lowercase everything
-        String s = daysOpRaw.trim()
-                .replace("–", "-")
-                .replace("—", "-")
-                .toLowerCase();
-
-        if (s.equals("daily")) {
-            out.addAll(Arrays.asList(DayOfWeek.values()));
-            return out;
-        }
-
-        // Handle ranges like "mon-fri", "fri-sun", etc.
-        String[] parts = s.split(",");
-        for (String part : parts) {
-            String token = part.trim();
-            if (token.contains("-")) {
-                String[] range = token.split("-");
-                if (range.length == 2) {
-                    DayOfWeek start = parseDayToken(range[0].trim());
-                    DayOfWeek end = parseDayToken(range[1].trim());
-                    if (start != null && end != null) {
-                        addInclusiveRange(out, start, end);
-                    }
-                }
-            } else {
-                DayOfWeek d = parseDayToken(token);
-                if (d != null)
-                    out.add(d);
-            }
-        }
-
-        return out;
-    }
-
-    private DayOfWeek parseDayToken(String tokenRaw) {
-        if (tokenRaw == null)
-            return null;
-        switch (tokenRaw.substring(0, 3)) {
-            case "mon":
-                return DayOfWeek.MONDAY;
-            case "tue":
-                return DayOfWeek.TUESDAY;
-            case "wed":
-                return DayOfWeek.WEDNESDAY;
-            case "thu":
-                return DayOfWeek.THURSDAY;
-            case "fri":
-                return DayOfWeek.FRIDAY;
-            case "sat":
-                return DayOfWeek.SATURDAY;
-            case "sun":
-                return DayOfWeek.SUNDAY;
-            default:
-                return null;
-        }
-    }
-
-    // adds days between two days inclusive
-    private void addInclusiveRange(Set<DayOfWeek> out, DayOfWeek start, DayOfWeek end) {
-        int i = start.getValue() - 1;
-        int j = end.getValue() - 1;
-        for (int k = 0; k < 7; k++) {
-            int idx = (i + k) % 7;
-            out.add(DayOfWeek.of(idx + 1));
-            if (idx == j)
-                break;
-        }
-    }
-
     private DayOfWeek plusDays(DayOfWeek d, int add) {
         int idx = (d.getValue() - 1 + add) % 7;
         if (idx < 0)
@@ -640,28 +597,6 @@ public class RailConnectGUI extends Application {
         return t.getHour() * 60 + t.getMinute();
     }
 
-    private int layoverMinutesAcrossDays(Connection firstConn, Connection secondConn, DayOfWeek arrivalDay) {
-        int arrMin = toMinutes(firstConn.getArrivalTime());
-        java.util.Set<DayOfWeek> ops = parseDaysOfOperation(secondConn.getDaysOfOperation());
-        int depMin = toMinutes(secondConn.getDepartureTime());
-
-        for (int add = 0; add < 7; add++) {
-            DayOfWeek candidate = plusDays(arrivalDay, add);
-            if (!ops.contains(candidate))
-                continue;
-
-            if (add == 0) {
-                if (depMin >= arrMin)
-                    return depMin - arrMin;
-                continue;
-            } else {
-                return add * 24 * 60 + (depMin - arrMin);
-            }
-        }
-
-        return Integer.MAX_VALUE / 4;
-    }
-
     private DayOfWeek arrivalDayFor(Connection conn, DayOfWeek departureDay) {
         int add = conn.isNextDay() ? 1 : 0;
         return plusDays(departureDay, add);
@@ -762,9 +697,9 @@ public class RailConnectGUI extends Application {
         datePicker.setPrefWidth(250);
 
         Connection firstConnection = selectedTripForBooking.getConnections().get(0);
-        Set<DayOfWeek> validDays = parseDaysOfOperation(firstConnection.getDaysOfOperation());
+        int validDays = firstConnection.getDayMask();
 
-        if (!validDays.isEmpty()) {
+        if (validDays != DayMask.NONE) {
             datePicker.setDayCellFactory(
                     new javafx.util.Callback<javafx.scene.control.DatePicker, javafx.scene.control.DateCell>() {
                         @Override
@@ -776,7 +711,7 @@ public class RailConnectGUI extends Application {
                                     if (empty)
                                         return;
                                     DayOfWeek day = date.getDayOfWeek();
-                                    boolean available = validDays.contains(day);
+                                    boolean available = DayMask.contains(validDays, day);
 
                                     setDisable(!available);
                                     if (available) {
@@ -1013,9 +948,9 @@ public class RailConnectGUI extends Application {
         datePicker.setPrefWidth(250);
 
         Connection firstConnection = selectedTripForBooking.getConnections().get(0);
-        Set<DayOfWeek> validDays = parseDaysOfOperation(firstConnection.getDaysOfOperation());
+        int validDays = firstConnection.getDayMask();
 
-        if (lastSelectedStartDay != null && !validDays.isEmpty()) {
+        if (lastSelectedStartDay != null && validDays != DayMask.NONE) {
             datePicker.setDayCellFactory(
                     new javafx.util.Callback<javafx.scene.control.DatePicker, javafx.scene.control.DateCell>() {
                         @Override
@@ -1027,7 +962,7 @@ public class RailConnectGUI extends Application {
                                     if (empty)
                                         return;
                                     DayOfWeek day = date.getDayOfWeek();
-                                    boolean available = validDays.contains(day);
+                                    boolean available = DayMask.contains(validDays, day);
 
                                     setDisable(!available);
                                     if (available) {
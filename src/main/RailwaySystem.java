@@ -2,17 +2,51 @@ import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class RailwaySystem {
+    // Define restrictions on layover times
+    static final short MIN_LAYOVER_MINUTES = 30; // At least 30 mins to allow for passengers to switch trains
+    static final short MAX_DAY_LAYOVER_MINUTES = 540; // At most 9 hours during the day
+    private static final int LAST_MINUTE = 24 * 60 - 1;
+    private static final int FIRST_LEGS_PER_TASK = 16; // Smallest batch of first legs worth its own task
+    private static final int SEARCH_CACHE_TRIPS = 200000; // Trips kept over all cached searches
+    private static final int CACHED_SEARCH_TRIPS = 20000; // Larger results are not cached
+
     private Connections connections;
     private TripCollection tripCollection;
     private DatabaseManager dbManager;
+    private ConnectionScanRouter scanRouter;
+    private RaptorRouter raptorRouter;
+    private ParetoRouter paretoRouter;
+    private ProfileRouter profileRouter;
+    private IsochroneRouter isochroneRouter;
+    private KShortestRouter kShortestRouter;
+    private ForkJoinPool searchPool; // Null when searches run on the calling thread
+    private SearchCache searchCache;
+    private boolean useContractionHierarchy; // Answer earliest-arrival searches from the hierarchy
 
     public RailwaySystem(TripCollection tripCollection) {
         this.connections = new Connections();
         this.tripCollection = tripCollection;
         this.dbManager = new DatabaseManager();
+        this.scanRouter = new ConnectionScanRouter(connections);
+        this.raptorRouter = new RaptorRouter(connections);
+        this.paretoRouter = new ParetoRouter(connections);
+        this.profileRouter = new ProfileRouter(connections);
+        this.isochroneRouter = new IsochroneRouter(connections);
+        this.kShortestRouter = new KShortestRouter(connections);
+        this.searchCache = new SearchCache(SEARCH_CACHE_TRIPS, CACHED_SEARCH_TRIPS);
 
         connections.setDatabaseManager(dbManager);
         tripCollection.setDatabaseManager(dbManager, connections);
@@ -20,6 +54,40 @@ public class RailwaySystem {
         System.out.println("System initialized with database");
     }
 
+    // Keep the timetable in a memory-mapped file instead of on the heap, for timetables large
+    // enough that the connection objects cause visible GC pauses. Searches return the same results
+    public void setOffHeapTimetable(boolean offHeap) {
+        connections.setOffHeapStore(offHeap ? MappedTimetableStore.DEFAULT_FILE : null);
+    }
+
+    // Holiday exceptions used by searchConnectionsOn, railway_system.holidays by default
+    public void setHolidaysFile(String file) {
+        connections.setHolidaysFile(file);
+    }
+
+    // Answer searchEarliestArrival from the precomputed ContractionHierarchy instead of a full
+    // timetable scan. Worth it when the timetable changes rarely and long-distance searches are
+    // frequent; the hierarchy is rebuilt after every import. Searches with more stops than it
+    // was built for still use the scan
+    public void setUseContractionHierarchy(boolean use) {
+        this.useContractionHierarchy = use;
+        if (use && connections.getCount() > 0) {
+            connections.getContractionHierarchy();
+        }
+    }
+
+    // Number of threads used to expand first legs in searchConnections. 1 (the default) keeps
+    // the search on the calling thread. The result is the same, in the same order, either way
+    public void setSearchThreads(int threads) {
+        if (searchPool != null) {
+            searchPool.shutdown();
+            searchPool = null;
+        }
+        if (threads > 1) {
+            searchPool = new ForkJoinPool(threads);
+        }
+    }
+
     public int loadConnectionData(String filepath) {
         // Check if database already has connections
         try {
@@ -107,13 +175,204 @@ public class RailwaySystem {
         }
 
         System.out.println("Loaded " + loadedCount + " connections"); // Verify that all connections were loaded
+        connections.importFinished();
+        if (useContractionHierarchy) {
+            connections.getContractionHierarchy();
+        }
         return loadedCount;
     }
 
     public List<Trip> searchConnections(String depCity, String arrCity, String depTime, String arrTime,
             String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay) {
+        // Repeated searches (e.g. only the sort order changed) are answered from the cache
+        // until the timetable changes. The list is read-only since the cache shares it, callers
+        // that sort it make their own copy
+        String key = SearchCache.keyOf(depCity, arrCity, parseTime(depTime), parseTime(arrTime), trainType, daysOp,
+                firstClass, maxStops, startDay);
+        int version = connections.getVersion();
+        List<Trip> cached = searchCache.get(key, version);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<Trip> trips = findTrips(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass, maxStops,
+                ServiceDays.weekly(startDay), null);
+        return searchCache.put(key, version, trips);
+    }
+
+    // Date-aware search: the same trips as searchConnections, but every leg has to run on the
+    // calendar date it is actually taken (days of operation plus the holiday exceptions). The
+    // date rolls forward over overnight legs and layovers past midnight, and when a later train
+    // does not run on that date the trip waits for the next date it does, up to a week. Legs are
+    // checked against the calendar while the trips are expanded. The trips carry the date of
+    // each leg and their totals include the whole-day waits
+    public List<Trip> searchConnectionsOn(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.LocalDate date) {
+        return findTrips(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass, maxStops,
+                ServiceDays.on(connections.getServiceCalendar(), date), null);
+    }
+
+    // Copy of trip leaving on date with the date of every leg, or null if it cannot be taken then
+    private Trip onDate(Trip trip, java.time.LocalDate date, ServiceCalendar calendar, boolean firstClass) {
+        List<Connection> legs = trip.getConnections();
+        if (!calendar.runsOn(legs.get(0), date)) {
+            return null;
+        }
+
+        List<java.time.LocalDate> dates = new ArrayList<>();
+        dates.add(date);
+        int totalLayover = 0;
+        for (int i = 1; i < legs.size(); i++) {
+            Connection previous = legs.get(i - 1);
+            java.time.LocalDate arrivalDate = arrivalDate(previous, dates.get(i - 1));
+            int layover = layoverMinutesAcrossDays(previous, legs.get(i), arrivalDate, calendar);
+            if (layover < 0) {
+                return null;
+            }
+            totalLayover += layover;
+            dates.add(nextLegDate(previous, arrivalDate, layover));
+        }
+        return datedTrip(firstClass, legs, dates, totalLayover);
+    }
+
+    private static java.time.LocalDate arrivalDate(Connection leg, java.time.LocalDate departureDate) {
+        return leg.isNextDay() ? departureDate.plusDays(1) : departureDate;
+    }
+
+    // Date the next leg leaves on, layover minutes after previous arrived on arrivalDate
+    private java.time.LocalDate nextLegDate(Connection previous, java.time.LocalDate arrivalDate, int layover) {
+        return arrivalDate.plusDays((toMinutes(previous.getArrivalTime()) + layover) / (24 * 60));
+    }
+
+    private static Trip datedTrip(boolean firstClass, List<Connection> legs, List<java.time.LocalDate> dates,
+            int totalLayover) {
+        Trip trip = new Trip();
+        for (Connection leg : legs) {
+            trip.addConnection(leg);
+        }
+        trip.computeTotalsWithLayovers(firstClass, totalLayover);
+        trip.setDepartureDates(dates);
+        return trip;
+    }
+
+    // Minutes from arriving with firstConn on arrivalDate until secondConn leaves on the first
+    // date it runs (the arrival date if it leaves later that day, otherwise one of the next
+    // days), or -1 if it does not run within a week
+    public int layoverMinutesAcrossDays(Connection firstConn, Connection secondConn, java.time.LocalDate arrivalDate,
+            ServiceCalendar calendar) {
+        int arrMin = toMinutes(firstConn.getArrivalTime());
+        int depMin = toMinutes(secondConn.getDepartureTime());
+
+        for (int add = 0; add < 7; add++) {
+            if (add == 0 && depMin < arrMin) {
+                continue;
+            }
+            if (calendar.runsOn(secondConn, arrivalDate.plusDays(add))) {
+                return add * 24 * 60 + (depMin - arrMin);
+            }
+        }
+        return -1;
+    }
+
+    // Same search, but only the best k trips by duration (or price for the selected class) are
+    // kept, best first. Branches that cannot beat the current k-th trip are not expanded.
+    public List<Trip> searchTopConnections(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay,
+            int k, boolean sortByPrice) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        List<Trip> ranked = rankedPrefix(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass,
+                maxStops, startDay, sortByPrice, k);
+        return new ArrayList<>(ranked.subList(0, Math.min(k, ranked.size())));
+    }
+
+    // One page of the results ranked as searchTopConnections ranks them: trips offset to
+    // offset + limit - 1. Only the best offset + limit trips are searched for, and the ranking
+    // found so far is cached, so the next pages search again only when they go past it
+    public List<Trip> searchConnectionsPage(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay,
+            boolean sortByPrice, int offset, int limit) {
+        if (limit <= 0 || offset < 0) {
+            return new ArrayList<>();
+        }
+        List<Trip> ranked = rankedPrefix(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass,
+                maxStops, startDay, sortByPrice, offset + limit);
+        if (offset >= ranked.size()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(ranked.subList(offset, Math.min(ranked.size(), offset + limit)));
+    }
+
+    // The best trips of the query, best first: at least k of them, or all there are. The
+    // ranking is cached under rankedKey once it holds every trip, otherwise under topKey, and
+    // a longer one is searched for with at least twice as many trips as the cached one, so
+    // paging through n trips runs about log n searches. Read-only, shared with the cache
+    private List<Trip> rankedPrefix(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay,
+            boolean sortByPrice, int k) {
+        String key = SearchCache.keyOf(depCity, arrCity, parseTime(depTime), parseTime(arrTime), trainType, daysOp,
+                firstClass, maxStops, startDay);
+        String rankedKey = SearchCache.rankedKey(key, sortByPrice);
+        String topKey = rankedKey + "|top";
+        int version = connections.getVersion();
+
+        List<Trip> ranked = searchCache.get(rankedKey, version);
+        if (ranked != null) {
+            return ranked;
+        }
+        List<Trip> prefix = searchCache.get(topKey, version);
+        if (prefix != null && prefix.size() >= k) {
+            return prefix;
+        }
+
+        int searched = prefix != null ? Math.max(k, 2 * prefix.size()) : k;
+        TopTrips top = new TopTrips(searched, sortByPrice, firstClass);
+        List<Trip> all = searchCache.get(key, version);
+        if (all != null) {
+            // Every trip is cached already (e.g. searchConnections ran), only the ranking is left
+            for (Trip trip : all) {
+                top.offer(trip);
+            }
+        } else {
+            findTrips(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass, maxStops,
+                    ServiceDays.weekly(startDay), top);
+        }
+
+        // Fewer than searched trips means nothing was cut: that is the whole ranking
+        List<Trip> best = top.toList();
+        return searchCache.put(best.size() < searched ? rankedKey : topKey, version, best);
+    }
+
+    // Ranked results as a lazy stream, one page at a time as the stream is consumed
+    public Stream<Trip> streamConnections(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay,
+            boolean sortByPrice, int pageSize) {
+        TripPages pages = pageConnections(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass,
+                maxStops, startDay, sortByPrice, pageSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false);
+    }
+
+    public TripPages pageConnections(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay,
+            boolean sortByPrice, int pageSize) {
+        return new TripPages((offset, limit) -> searchConnectionsPage(depCity, arrCity, depTime, arrTime, trainType,
+                daysOp, firstClass, maxStops, startDay, sortByPrice, offset, limit), pageSize);
+    }
+
+    // Collects every trip into the returned list, or offers them to top when it is not null.
+    // By day of the week only the first leg is checked against days; dated searches check
+    // every leg on the date it is taken
+    private List<Trip> findTrips(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, ServiceDays days,
+            TopTrips top) {
         List<Trip> allTrips = new ArrayList<>();
 
+        // Nothing to search if the cities are not connected within maxStops stops
+        if (isUnreachable(depCity, arrCity, maxStops)) {
+            return allTrips;
+        }
+
         // Parse the time into minutes
         Integer depTimeMinutes = parseTime(depTime);
         Integer arrTimeMinutes = parseTime(arrTime);
@@ -122,15 +381,20 @@ public class RailwaySystem {
         List<Connection> directConnections = connections.findMatching(depCity, arrCity,
                 depTimeMinutes, arrTimeMinutes, trainType, daysOp);
 
-        if (startDay != null) {
-            directConnections.removeIf(conn -> !parseDays(conn.getDaysOfOperation()).contains(startDay));
+        if (days != null) {
+            directConnections.removeIf(conn -> !days.runsOn(conn, 0));
         }
         // Create a trip for each direct connection
         for (Connection conn : directConnections) {
-            Trip trip = new Trip();
-            trip.addConnection(conn);
-            trip.computeTotals(firstClass, 0); // No transfer time because direct
-            allTrips.add(trip);
+            Trip trip;
+            if (days != null && days.isDated()) {
+                trip = datedTrip(firstClass, List.of(conn), List.of(days.date(0)), 0);
+            } else {
+                trip = new Trip();
+                trip.addConnection(conn);
+                trip.computeTotals(firstClass, 0); // No transfer time because direct
+            }
+            collect(trip, allTrips, top);
         }
 
         // Make sure that both the arrival and departure cities are filled in because
@@ -138,112 +402,458 @@ public class RailwaySystem {
         if (depCity != null && !depCity.trim().isEmpty() && arrCity != null && !arrCity.trim().isEmpty()) {
             if (maxStops >= 1) {
                 List<Trip> oneStopTrips = findOneStopTrips(depCity, arrCity, depTimeMinutes, arrTimeMinutes,
-                        trainType, daysOp, firstClass, startDay);
+                        trainType, daysOp, firstClass, days, top);
                 allTrips.addAll(oneStopTrips);
             }
 
             if (maxStops >= 2) {
                 List<Trip> twoStopTrips = findTwoStopTrips(depCity, arrCity, depTimeMinutes, arrTimeMinutes,
-                        trainType, daysOp, firstClass, directConnections, startDay);
+                        trainType, daysOp, firstClass, directConnections, days, top);
                 allTrips.addAll(twoStopTrips);
             }
+
+            // Enumerating every combination is not feasible past two stops, so longer
+            // journeys come from the round-based router instead. They are costed like the
+            // enumerated trips so the merged results rank on one scale
+            if (maxStops > 2) {
+                for (Trip trip : raptorRouter.findLongTrips(depCity, arrCity, depTimeMinutes, arrTimeMinutes,
+                        trainType, daysOp, firstClass, maxStops, days)) {
+                    if (trip.getStopCount() <= 2 || trip.getStopCount() > maxStops) {
+                        continue;
+                    }
+                    if (days != null && days.isDated()) {
+                        // The router already took every leg on a date it runs, this only adds the dates
+                        trip = onDate(trip, days.date(0), days.getCalendar(), firstClass);
+                    } else {
+                        trip = enumeratedTotals(trip, firstClass);
+                    }
+                    if (trip != null) {
+                        collect(trip, allTrips, top);
+                    }
+                }
+            }
         }
 
         return allTrips;
     }
 
-    private List<Trip> findOneStopTrips(String depCity, String arrCity, Integer depTime, Integer arrTime,
-            String trainType, String daysOp, boolean firstClass, java.time.DayOfWeek startDay) {
-        List<Trip> trips = new ArrayList<>();
+    // Earliest-arrival search: one linear scan over the timetable (Connection Scan
+    // Algorithm) instead of enumerating every combination of legs
+    public List<Trip> searchEarliestArrival(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay) {
+        if (isUnreachable(depCity, arrCity, maxStops)) {
+            return new ArrayList<>();
+        }
+        if (useContractionHierarchy && maxStops < ContractionHierarchy.MAX_LEGS) {
+            return connections.getContractionHierarchy().findEarliestArrival(depCity, arrCity, parseTime(depTime),
+                    parseTime(arrTime), trainType, daysOp, firstClass, maxStops, startDay);
+        }
+        return scanRouter.findEarliestArrival(depCity, arrCity, parseTime(depTime), parseTime(arrTime),
+                trainType, daysOp, firstClass, maxStops, startDay);
+    }
 
-        // Find all first legs departing from origin
-        List<Connection> firstSegments = connections.findMatching(depCity, null, depTime, null, trainType, daysOp);
+    // Round-based search (RAPTOR) that supports any number of stops. Returns the earliest
+    // arrival for each number of legs, as long as it beats the journeys with fewer legs
+    public List<Trip> searchJourneys(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay) {
+        if (isUnreachable(depCity, arrCity, maxStops)) {
+            return new ArrayList<>();
+        }
+        return raptorRouter.findJourneys(depCity, arrCity, parseTime(depTime), parseTime(arrTime),
+                trainType, daysOp, firstClass, maxStops, startDay);
+    }
 
-        // Define restrictions on layover times
-        short minLayoverMinutes = 30; // At least 30 mins to allow for passengers to switch trains
-        short maxDayLayoverMinutes = 540; // At most 9 hours during the day
+    // Only the trips that are not beaten on duration, price and number of stops at once,
+    // sorted by duration then price
+    public List<Trip> searchParetoOptimal(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay) {
+        if (isUnreachable(depCity, arrCity, maxStops)) {
+            return new ArrayList<>();
+        }
+        return paretoRouter.findParetoOptimal(depCity, arrCity, parseTime(depTime), parseTime(arrTime),
+                trainType, daysOp, firstClass, maxStops, startDay);
+    }
 
-        if (startDay != null) {
-            firstSegments.removeIf(conn -> !parseDays(conn.getDaysOfOperation()).contains(startDay));
+    // The best trip plus up to k - 1 alternatives, best first by duration (or price for the
+    // selected class). Each alternative differs from the trips before it in at least one train
+    // and never passes through the same city twice. Any number of stops up to maxStops
+    public List<Trip> searchAlternatives(String depCity, String arrCity, String depTime, String arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay,
+            int k, boolean sortByPrice) {
+        if (isUnreachable(depCity, arrCity, maxStops)) {
+            return new ArrayList<>();
         }
-        for (Connection firstSegment : firstSegments) {
-            List<Connection> secondSegments = connections.findMatching(firstSegment.getArrivalCity().getName(), arrCity,
-                    null, arrTime, trainType, daysOp);
+        return kShortestRouter.findAlternatives(depCity, arrCity, parseTime(depTime), parseTime(arrTime),
+                trainType, daysOp, firstClass, maxStops, startDay, k, sortByPrice);
+    }
 
-            for (Connection secondSegment : secondSegments) {
-                int transferTime = calculateTransferTime(firstSegment, secondSegment);
+    // Every departure from depCity between windowStart and windowEnd (e.g. "06:00" to "12:00")
+    // with the journey arriving earliest and the cheapest journey starting with it, found in
+    // one pass instead of one search per departure time
+    public List<DepartureOption> searchProfile(String depCity, String arrCity, String windowStart,
+            String windowEnd, String arrTime, String trainType, String daysOp, boolean firstClass, int maxStops,
+            java.time.DayOfWeek startDay) {
+        if (isUnreachable(depCity, arrCity, maxStops)) {
+            return new ArrayList<>();
+        }
 
-                // Handle layover time limits
-                if (transferTime < minLayoverMinutes || transferTime > maxDayLayoverMinutes) {
-                    continue;
-                }
+        Integer start = parseTime(windowStart);
+        Integer end = parseTime(windowEnd);
+        return profileRouter.findProfile(depCity, arrCity, start != null ? start : 0,
+                end != null ? end : LAST_MINUTE, parseTime(arrTime), trainType, daysOp, firstClass, maxStops,
+                startDay);
+    }
+
+    // Earliest arrival and cheapest fare to every city reachable from depCity, in one scan.
+    // maxDuration (minutes after depTime, null for no limit) bounds how far the search goes
+    public List<ReachableCity> searchReachable(String depCity, String depTime, String trainType, String daysOp,
+            boolean firstClass, int maxStops, java.time.DayOfWeek startDay, Integer maxDuration) {
+        return isochroneRouter.findReachable(depCity, parseTime(depTime), null, trainType, daysOp, firstClass,
+                maxStops, startDay, maxDuration);
+    }
+
+    // Earliest and cheapest trip for every query of a batch. Queries leaving the same city with
+    // the same times, filters, class, stops and day share one one-to-all scan, so a group costs
+    // about as much as a single search whatever the number of destinations. Groups run on the
+    // search pool when setSearchThreads is used. Each result is passed to sink as soon as its
+    // group is done (one call at a time, but not in batch order), so nothing is kept per query
+    public void searchBatch(List<BatchQuery> queries, Consumer<BatchResult> sink) {
+        // Query indexes by shared part of the query (everything except the destination)
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            BatchQuery query = queries.get(i);
+            String key = SearchCache.keyOf(query.getDepCity(), null, parseTime(query.getDepTime()),
+                    parseTime(query.getArrTime()), query.getTrainType(), query.getDaysOp(), query.isFirstClass(),
+                    query.getMaxStops(), query.getStartDay());
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+
+        // Built lazily, so build it once here before the groups run on several threads
+        connections.getTimetable();
 
-                Trip trip = new Trip();
-                trip.addConnection(firstSegment);
-                trip.addConnection(secondSegment);
+        Consumer<List<Integer>> runGroup = indexes -> {
+            BatchQuery first = queries.get(indexes.get(0));
+            Map<String, ReachableCity> reached = new HashMap<>();
+            for (ReachableCity city : isochroneRouter.findReachable(first.getDepCity(),
+                    parseTime(first.getDepTime()), parseTime(first.getArrTime()), first.getTrainType(),
+                    first.getDaysOp(), first.isFirstClass(), first.getMaxStops(), first.getStartDay(), null)) {
+                reached.put(city.getCity().toLowerCase(), city);
+            }
 
-                trip.computeTotals(firstClass, transferTime);
-                trips.add(trip);
+            for (int index : indexes) {
+                BatchQuery query = queries.get(index);
+                String arrCity = query.getArrCity() != null ? query.getArrCity().trim().toLowerCase() : "";
+                BatchResult result = new BatchResult(index, query, reached.get(arrCity));
+                synchronized (sink) {
+                    sink.accept(result);
+                }
             }
+        };
+
+        if (searchPool == null) {
+            groups.values().forEach(runGroup);
+        } else {
+            searchPool.submit(() -> groups.values().parallelStream().forEach(runGroup)).join();
+        }
+    }
+
+    private List<Trip> findOneStopTrips(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, ServiceDays days, TopTrips top) {
+        List<Trip> trips = new ArrayList<>();
+        CityDistances distances = connections.getCityDistances();
+        TransferPatterns patterns = connections.getTransferPatterns();
+        City origin = connections.findCity(depCity);
+        City destination = connections.findCity(arrCity);
+
+        // Find all first legs departing from origin (binary search on departure time)
+        List<Connection> firstSegments = connections.findDepartures(depCity, null, depTime != null ? depTime : 0,
+                LAST_MINUTE, null, trainType, daysOp);
+
+        if (days != null) {
+            firstSegments.removeIf(conn -> !days.runsOn(conn, 0));
         }
+        boolean dated = days != null && days.isDated();
+        forEachFirstLeg(firstSegments, trips, top, (firstSegment, taskTrips, taskTop) -> {
+            // No one-stop trip to the destination changes trains at this stop, at any time of day
+            if (!patterns.isOneStopVia(origin, destination, firstSegment.getArrivalCity())) {
+                return;
+            }
+
+            // Skip if even the shortest possible layover and second leg cannot reach the top k
+            if (!canImprove(taskTop, firstClass, firstSegment.getDurationMinutes() + MIN_LAYOVER_MINUTES
+                    + distances.travelMinutes(firstSegment.getArrivalCity(), destination), firstSegment)) {
+                return;
+            }
+
+            // Only second legs leaving inside the allowed layover window
+            int arrival = toMinutes(firstSegment.getArrivalTime());
+            List<Connection> secondSegments = connections.findDepartures(firstSegment.getArrivalCity(),
+                    arrCity, layoverStart(arrival), layoverEnd(arrival), arrTime, trainType, daysOp);
+
+            for (Connection secondSegment : secondSegments) {
+                Trip trip;
+                if (dated) {
+                    // The second train may only run on one of the following days
+                    java.time.LocalDate arrivalDate = arrivalDate(firstSegment, days.date(0));
+                    int layover = layoverMinutesAcrossDays(firstSegment, secondSegment, arrivalDate,
+                            days.getCalendar());
+                    if (layover < 0) {
+                        continue;
+                    }
+                    trip = datedTrip(firstClass, List.of(firstSegment, secondSegment),
+                            List.of(days.date(0), nextLegDate(firstSegment, arrivalDate, layover)), layover);
+                } else {
+                    int transferTime = calculateTransferTime(firstSegment, secondSegment);
+
+                    trip = new Trip();
+                    trip.addConnection(firstSegment);
+                    trip.addConnection(secondSegment);
+
+                    trip.computeTotals(firstClass, transferTime);
+                }
+                collect(trip, taskTrips, taskTop);
+            }
+        });
         return trips;
     }
 
+    // Meet in the middle: last legs into arrCity grouped by the city they leave from, and a
+    // forward pass from depCity that only follows legs into transfer cities on one of the
+    // precomputed transfer patterns, joined with the last legs by hash lookups
     private List<Trip> findTwoStopTrips(String depCity, String arrCity, Integer depTime, Integer arrTime,
             String trainType, String daysOp, boolean firstClass, List<Connection> directConnections,
-            java.time.DayOfWeek startDay) {
+            ServiceDays days, TopTrips top) {
         List<Trip> trips = new ArrayList<>();
+        CityDistances distances = connections.getCityDistances();
+        TransferPatterns patterns = connections.getTransferPatterns();
+        City origin = connections.findCity(depCity);
+        City destination = connections.findCity(arrCity);
+        Set<Connection> direct = new HashSet<>(directConnections);
+
+        // Backward: last legs into the destination, by departure city
+        Map<City, List<Connection>> thirdSegmentsByCity = new HashMap<>();
+        for (Connection thirdSegment : connections.findMatching(null, arrCity, null, arrTime, trainType, daysOp)) {
+            if (isDirectConnection(thirdSegment, direct)) {
+                continue;
+            }
+            thirdSegmentsByCity.computeIfAbsent(thirdSegment.getDepartureCity(), k -> new ArrayList<>())
+                    .add(thirdSegment);
+        }
+        if (thirdSegmentsByCity.isEmpty()) {
+            return trips;
+        }
 
-        // Find all first legs departing from origin
-        List<Connection> firstSegments = connections.findMatching(depCity, null, depTime, null, trainType, daysOp);
+        // Sorted by departure so the second layover window is a range lookup
+        Map<City, DepartureBoard> thirdSegmentBoards = new HashMap<>();
+        for (Map.Entry<City, List<Connection>> entry : thirdSegmentsByCity.entrySet()) {
+            thirdSegmentBoards.put(entry.getKey(), new DepartureBoard(entry.getValue()));
+        }
 
-        // Define restrictions on layover times
-        short minLayoverMinutes = 30; // At least 30 mins to allow for passengers to switch trains
-        short maxDayLayoverMinutes = 540; // At most 9 hours during the day
+        // Find all first legs departing from origin (binary search on departure time)
+        List<Connection> firstSegments = connections.findDepartures(depCity, null, depTime != null ? depTime : 0,
+                LAST_MINUTE, null, trainType, daysOp);
 
-        if (startDay != null) {
-            firstSegments.removeIf(conn -> !parseDays(conn.getDaysOfOperation()).contains(startDay));
+        if (days != null) {
+            firstSegments.removeIf(conn -> !days.runsOn(conn, 0));
         }
-        for (Connection firstSegment : firstSegments) {
+        boolean dated = days != null && days.isDated();
 
-            if (isDirectConnection(firstSegment, directConnections)) {
-                continue;
+        forEachFirstLeg(firstSegments, trips, top, (firstSegment, taskTrips, taskTop) -> {
+
+            if (isDirectConnection(firstSegment, direct)) {
+                return;
+            }
+
+            // No two-stop trip to the destination changes trains first at this stop
+            City firstStop = firstSegment.getArrivalCity();
+            if (!patterns.isFirstVia(origin, destination, firstStop)) {
+                return;
+            }
+
+            // computeTotals counts the transfer time once per stop, so two stops add at least
+            // 2 * (30 + 30) minutes, plus at least the shortest train time from here
+            if (!canImprove(taskTop, firstClass, firstSegment.getDurationMinutes() + 4 * MIN_LAYOVER_MINUTES
+                    + distances.travelMinutes(firstSegment.getArrivalCity(), destination), firstSegment)) {
+                return;
             }
-            List<Connection> secondSegments = connections.findMatching(firstSegment.getArrivalCity().getName(), null,
-                    null, null, trainType, daysOp);
+
+            // Second legs inside the first layover window that reach a last-leg city
+            int arrival1 = toMinutes(firstSegment.getArrivalTime());
+            List<Connection> secondSegments = connections.findDepartures(firstSegment.getArrivalCity(),
+                    null, layoverStart(arrival1), layoverEnd(arrival1), null, trainType, daysOp);
 
             for (Connection secondSegment : secondSegments) {
 
-                if (isDirectConnection(secondSegment, directConnections)) {
+                if (!patterns.isSecondVia(origin, destination, firstStop, secondSegment.getArrivalCity())
+                        || !thirdSegmentsByCity.containsKey(secondSegment.getArrivalCity())
+                        || isDirectConnection(secondSegment, direct)) {
                     continue;
                 }
-                List<Connection> thirdSegments = connections.findMatching(secondSegment.getArrivalCity().getName(),
-                        arrCity, null, arrTime, trainType, daysOp);
-                for (Connection thirdSegment : thirdSegments) {
-                    if (isDirectConnection(thirdSegment, directConnections)) {
+
+                // Dated searches: the second train has to run on one of the days after the first
+                // arrives, and the third train is then looked for from the date it arrives
+                int layover1 = 0;
+                java.time.LocalDate secondDate = null;
+                if (dated) {
+                    java.time.LocalDate arrivalDate = arrivalDate(firstSegment, days.date(0));
+                    layover1 = layoverMinutesAcrossDays(firstSegment, secondSegment, arrivalDate, days.getCalendar());
+                    if (layover1 < 0) {
                         continue;
                     }
-                    int transferTime1 = calculateTransferTime(firstSegment, secondSegment);
-                    int transferTime2 = calculateTransferTime(secondSegment, thirdSegment);
+                    secondDate = nextLegDate(firstSegment, arrivalDate, layover1);
+                }
 
-                    // Handle layover time limits
-                    if (transferTime1 < minLayoverMinutes || transferTime1 > maxDayLayoverMinutes) {
-                        continue; // Skip adding this segment
-                    } else if (transferTime2 < minLayoverMinutes || transferTime2 > maxDayLayoverMinutes) {
-                        continue;
+                int transferTime1 = calculateTransferTime(firstSegment, secondSegment);
+                if (!canImprove(taskTop, firstClass, firstSegment.getDurationMinutes()
+                        + secondSegment.getDurationMinutes() + 2 * (transferTime1 + MIN_LAYOVER_MINUTES)
+                        + distances.travelMinutes(secondSegment.getArrivalCity(), destination),
+                        firstSegment, secondSegment)) {
+                    continue;
+                }
+
+                // Join with the backward frontier inside the second layover window
+                int arrival2 = toMinutes(secondSegment.getArrivalTime());
+                for (Connection thirdSegment : thirdSegmentBoards.get(secondSegment.getArrivalCity())
+                        .between(layoverStart(arrival2), layoverEnd(arrival2), null)) {
+                    Trip trip;
+                    if (dated) {
+                        java.time.LocalDate arrivalDate = arrivalDate(secondSegment, secondDate);
+                        int layover2 = layoverMinutesAcrossDays(secondSegment, thirdSegment, arrivalDate,
+                                days.getCalendar());
+                        if (layover2 < 0) {
+                            continue;
+                        }
+                        trip = datedTrip(firstClass, List.of(firstSegment, secondSegment, thirdSegment),
+                                List.of(days.date(0), secondDate, nextLegDate(secondSegment, arrivalDate, layover2)),
+                                layover1 + layover2);
+                    } else {
+                        int transferTime2 = calculateTransferTime(secondSegment, thirdSegment);
+
+                        trip = new Trip();
+                        trip.addConnection(firstSegment);
+                        trip.addConnection(secondSegment);
+                        trip.addConnection(thirdSegment);
+
+                        trip.computeTotals(firstClass, transferTime1 + transferTime2);
                     }
+                    collect(trip, taskTrips, taskTop);
+                }
+            }
+        });
+        return trips;
+    }
 
-                    Trip trip = new Trip();
-                    trip.addConnection(firstSegment);
-                    trip.addConnection(secondSegment);
-                    trip.addConnection(thirdSegment);
+    // Expands one first leg into complete trips, collected into trips or offered to top
+    private interface FirstLegExpansion {
+        void expand(Connection firstSegment, List<Trip> trips, TopTrips top);
+    }
+
+    // Runs the expansion for every first leg, split into tasks on the search pool when there is
+    // one. Each task collects into its own list (and its own top k), and the results are merged
+    // back in first-leg order so the output does not depend on the number of threads
+    private void forEachFirstLeg(List<Connection> firstSegments, List<Trip> trips, TopTrips top,
+            FirstLegExpansion expansion) {
+        if (searchPool == null || firstSegments.size() <= FIRST_LEGS_PER_TASK) {
+            for (Connection firstSegment : firstSegments) {
+                expansion.expand(firstSegment, trips, top);
+            }
+            return;
+        }
 
-                    trip.computeTotals(firstClass, transferTime1 + transferTime2);
-                    trips.add(trip);
+        List<FirstLegResult> results = searchPool
+                .invoke(new FirstLegTask(firstSegments, 0, firstSegments.size(), top, expansion));
+        for (FirstLegResult result : results) {
+            if (top != null) {
+                // Best first, so trips with equal keys are offered in the order they were found
+                for (Trip trip : result.top.toList()) {
+                    top.offer(trip);
                 }
+            } else {
+                trips.addAll(result.trips);
             }
         }
-        return trips;
+    }
+
+    private static class FirstLegResult {
+        private List<Trip> trips = new ArrayList<>();
+        private TopTrips top;
+    }
+
+    // Splits a range of first legs in half until it is small enough to expand directly
+    private static class FirstLegTask extends RecursiveTask<List<FirstLegResult>> {
+        private static final long serialVersionUID = 1L;
+
+        private List<Connection> firstSegments;
+        private int from;
+        private int to;
+        private TopTrips top;
+        private FirstLegExpansion expansion;
+
+        private FirstLegTask(List<Connection> firstSegments, int from, int to, TopTrips top,
+                FirstLegExpansion expansion) {
+            this.firstSegments = firstSegments;
+            this.from = from;
+            this.to = to;
+            this.top = top;
+            this.expansion = expansion;
+        }
+
+        @Override
+        protected List<FirstLegResult> compute() {
+            if (to - from <= FIRST_LEGS_PER_TASK) {
+                FirstLegResult result = new FirstLegResult();
+                result.top = top != null ? top.emptyCopy() : null;
+                for (int i = from; i < to; i++) {
+                    expansion.expand(firstSegments.get(i), result.trips, result.top);
+                }
+                List<FirstLegResult> results = new ArrayList<>();
+                results.add(result);
+                return results;
+            }
+
+            int middle = (from + to) >>> 1;
+            FirstLegTask left = new FirstLegTask(firstSegments, from, middle, top, expansion);
+            FirstLegTask right = new FirstLegTask(firstSegments, middle, to, top, expansion);
+            left.fork();
+            List<FirstLegResult> results = right.compute();
+            List<FirstLegResult> combined = left.join();
+            combined.addAll(results);
+            return combined;
+        }
+    }
+
+    // True when both cities are given and the destination cannot be reached from the departure
+    // city with at most maxStops stops, whatever the times and filters
+    private boolean isUnreachable(String depCity, String arrCity, int maxStops) {
+        if (depCity == null || depCity.trim().isEmpty() || arrCity == null || arrCity.trim().isEmpty()) {
+            return false;
+        }
+        return !connections.getCityDistances().canReach(depCity, arrCity, maxStops);
+    }
+
+    private void collect(Trip trip, List<Trip> trips, TopTrips top) {
+        if (top != null) {
+            top.offer(trip);
+        } else {
+            trips.add(trip);
+        }
+    }
+
+    // Whether a partial trip made of these legs can still reach the top k. minDurationMinutes
+    // is a lower bound on the duration of any complete trip starting with them
+    private boolean canImprove(TopTrips top, boolean firstClass, int minDurationMinutes, Connection... legs) {
+        if (top == null) {
+            return true;
+        }
+        if (!top.isByPrice()) {
+            return top.canBeat(minDurationMinutes);
+        }
+
+        double price = 0.0;
+        for (Connection leg : legs) {
+            price += firstClass ? leg.getFirstClassPrice() : leg.getSecondClassPrice();
+        }
+        return top.canBeat(price);
     }
 
     // Parse the time intominutes for easy comparison and operations
@@ -262,6 +872,31 @@ public class RailwaySystem {
         }
     }
 
+    private int toMinutes(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    // Window of departure times (minutes of the day) that respect the layover limits after
+    // arriving at arrivalMinutes. It wraps past midnight when the start is after the end
+    private int layoverStart(int arrivalMinutes) {
+        return (arrivalMinutes + MIN_LAYOVER_MINUTES) % (24 * 60);
+    }
+
+    private int layoverEnd(int arrivalMinutes) {
+        return (arrivalMinutes + MAX_DAY_LAYOVER_MINUTES) % (24 * 60);
+    }
+
+    // Totals of trip the way findOneStopTrips and findTwoStopTrips work them out
+    private Trip enumeratedTotals(Trip trip, boolean firstClass) {
+        List<Connection> legs = trip.getConnections();
+        int transferTime = 0;
+        for (int i = 1; i < legs.size(); i++) {
+            transferTime += calculateTransferTime(legs.get(i - 1), legs.get(i));
+        }
+        trip.computeTotals(firstClass, transferTime);
+        return trip;
+    }
+
     public int calculateTransferTime(Connection firstSegment, Connection secondSegment) {
         int arrivalMinutes = firstSegment.getArrivalTime().getHour() * 60 + firstSegment.getArrivalTime().getMinute();
         int departureMinutes = secondSegment.getDepartureTime().getHour() * 60
@@ -277,16 +912,9 @@ public class RailwaySystem {
         return connections.getCount();
     }
 
-    private boolean isDirectConnection(Connection conn, List<Connection> directConnections) {
-        for (Connection directConn : directConnections) {
-            if (conn.getDepartureCity().equals(directConn.getDepartureCity()) &&
-                    conn.getArrivalCity().equals(directConn.getArrivalCity()) &&
-                    conn.getDepartureTime().equals(directConn.getDepartureTime()) &&
-                    conn.getArrivalTime().equals(directConn.getArrivalTime())) {
-                return true;
-            }
-        }
-        return false;
+    // Connection equality is by ConnectionKey, so this is a hash lookup
+    private boolean isDirectConnection(Connection conn, Set<Connection> directConnections) {
+        return directConnections.contains(conn);
     }
 
     public Map<String, List<BookedTrip>> viewTrips(String lastName, String id) {
@@ -309,76 +937,6 @@ public class RailwaySystem {
         return categorized;
     }
 
-    // parses selected days of the week
-    // turns day range to list of days
-    private java.util.Set<java.time.DayOfWeek> parseDays(String raw) {
-        java.util.Set<java.time.DayOfWeek> out = new java.util.HashSet<>();
-        if (raw == null || raw.isBlank())
-            return out;
-        String s = raw.trim().toLowerCase()
-                .replace("–", "-").replace("—", "-"); // normalize en/em dash to hyphen
-
-        if (s.equals("daily")) {
-            for (var d : java.time.DayOfWeek.values())
-                out.add(d);
-            return out;
-        }
-
-        for (String part : s.split(",")) {
-            String token = part.trim();
-            if (token.contains("-")) {
-                String[] ab = token.split("-");
-                if (ab.length == 2) {
-                    var a = parseDay(ab[0]);
-                    var b = parseDay(ab[1]);
-                    if (a != null && b != null)
-                        addRange(out, a, b);
-                }
-            } else {
-                var d = parseDay(token);
-                if (d != null)
-                    out.add(d);
-            }
-        }
-        return out;
-    }
-
-    private java.time.DayOfWeek parseDay(String t) {
-        if (t == null)
-            return null;
-        t = t.trim().toLowerCase();
-        if (t.length() >= 3)
-            t = t.substring(0, 3);
-        switch (t) {
-            case "mon":
-                return java.time.DayOfWeek.MONDAY;
-            case "tue":
-                return java.time.DayOfWeek.TUESDAY;
-            case "wed":
-                return java.time.DayOfWeek.WEDNESDAY;
-            case "thu":
-                return java.time.DayOfWeek.THURSDAY;
-            case "fri":
-                return java.time.DayOfWeek.FRIDAY;
-            case "sat":
-                return java.time.DayOfWeek.SATURDAY;
-            case "sun":
-                return java.time.DayOfWeek.SUNDAY;
-            default:
-                return null;
-        }
-    }
-
-    private void addRange(java.util.Set<java.time.DayOfWeek> out, java.time.DayOfWeek a, java.time.DayOfWeek b) {
-        int i = a.getValue() - 1, j = b.getValue() - 1;
-        for (int k = 0; k < 7; k++) {
-            int idx = (i + k) % 7;
-            out.add(java.time.DayOfWeek.of(idx + 1));
-            if (idx == j)
-                break;
-        }
-    }
-
     // Force reload from CSV, clearing existing database data
     public int forceLoadConnectionData(String filepath) {
         System.out.println("Force loading from CSV - clearing existing data...");
@@ -447,11 +1005,16 @@ public class RailwaySystem {
         }
 
         System.out.println("Loaded " + loadedCount + " connections from CSV to database");
+        connections.importFinished();
+        if (useContractionHierarchy) {
+            connections.getContractionHierarchy();
+        }
         return loadedCount;
     }
 
     // Clean up database connection when done
     public void cleanup() {
+        setSearchThreads(1);
         if (dbManager != null) {
             dbManager.close();
         }
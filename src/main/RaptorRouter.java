@@ -0,0 +1,188 @@
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+// Round-based routing (RAPTOR). Round k finds every arrival that takes k legs, boarding only
+// from the cities reached in the previous round, so the cost per round stays close to linear
+// and the number of stops is not capped at two like the enumeration in RailwaySystem.
+// Every leg is its own round, so each change between legs keeps the layover limits and the
+// number of stops is the number of legs minus one, the same as in a Trip.
+public class RaptorRouter {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private Connections connections;
+
+    public RaptorRouter(Connections connections) {
+        this.connections = connections;
+    }
+
+    // Arrival at a city at the end of a chain of legs
+    private static class Label {
+        private int row; // Timetable row of the leg
+        private int departure; // Minutes since midnight of the start day
+        private int arrival;
+        private Label previous;
+
+        private Label(int row, int departure, int arrival, Label previous) {
+            this.row = row;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.previous = previous;
+        }
+    }
+
+    // Returns the journeys that are not beaten by a journey with fewer legs: the earliest
+    // arrival using one leg, then using two legs if that arrives earlier, and so on up to
+    // maxStops + 1 legs. Transfers keep the 30 min minimum and 540 min maximum layover, and
+    // every leg has to run on the day it is taken.
+    public List<Trip> findJourneys(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, DayOfWeek startDay) {
+        ServiceDays days = ServiceDays.weekly(startDay);
+        return findJourneys(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass, maxStops, days,
+                days);
+    }
+
+    // The journeys searchConnections adds past two stops, with the days checked the way its
+    // enumeration checks them: every leg against its date in a dated search, only the first
+    // leg against the start day otherwise (null: any day)
+    public List<Trip> findLongTrips(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, ServiceDays days) {
+        return findJourneys(depCity, arrCity, depTime, arrTime, trainType, daysOp, firstClass, maxStops, days,
+                days != null && days.isDated() ? days : null);
+    }
+
+    // firstDays is checked for the legs leaving the origin, laterDays for the others
+    private List<Trip> findJourneys(String depCity, String arrCity, Integer depTime, Integer arrTime,
+            String trainType, String daysOp, boolean firstClass, int maxStops, ServiceDays firstDays,
+            ServiceDays laterDays) {
+        List<Trip> trips = new ArrayList<>();
+
+        Timetable timetable = connections.getTimetable();
+        int origin = timetable.cityId(depCity);
+        int destination = timetable.cityId(arrCity);
+        if (origin < 0 || destination < 0 || origin == destination) {
+            return trips;
+        }
+
+        IntPredicate allowed = timetable.matching(trainType, daysOp);
+
+        int rounds = maxStops + 1;
+        Label[] bestByRound = new Label[rounds + 1];
+        int[] bestArrival = { Integer.MAX_VALUE };
+        Map<Integer, Set<Integer>> seen = new HashMap<>();
+
+        // Round 1: leave the origin on the start day
+        Map<Integer, TreeMap<Integer, Label>> marked = new LinkedHashMap<>();
+        int earliestDeparture = depTime != null ? depTime : 0;
+        for (int i = timetable.firstDeparture(origin); i < timetable.endDeparture(origin); i++) {
+            int leg = timetable.departureRow(i);
+            int departure = timetable.departure(leg);
+            if (departure < earliestDeparture || !runs(timetable, leg, firstDays, 0, allowed)) {
+                continue;
+            }
+            arrive(timetable, leg, departure, null, 1, origin, destination, arrTime, bestByRound, bestArrival,
+                    seen, marked);
+        }
+
+        // Round k: change trains after any arrival found in round k - 1
+        for (int round = 2; round <= rounds && !marked.isEmpty(); round++) {
+            Map<Integer, TreeMap<Integer, Label>> next = new LinkedHashMap<>();
+
+            for (Map.Entry<Integer, TreeMap<Integer, Label>> entry : marked.entrySet()) {
+                int city = entry.getKey();
+                TreeMap<Integer, Label> arrivals = entry.getValue();
+                int lastDay = arrivals.lastKey() / MINUTES_PER_DAY + 1;
+
+                for (int i = timetable.firstDeparture(city); i < timetable.endDeparture(city); i++) {
+                    int leg = timetable.departureRow(i);
+
+                    // Earliest day on which this leg can be caught from one of the arrivals
+                    for (int day = 0; day <= lastDay; day++) {
+                        int departure = day * MINUTES_PER_DAY + timetable.departure(leg);
+                        Map.Entry<Integer, Label> boarding = arrivals
+                                .floorEntry(departure - RailwaySystem.MIN_LAYOVER_MINUTES);
+                        if (boarding == null
+                                || boarding.getKey() < departure - RailwaySystem.MAX_DAY_LAYOVER_MINUTES
+                                || !runs(timetable, leg, laterDays, day, allowed)) {
+                            continue;
+                        }
+                        arrive(timetable, leg, departure, boarding.getValue(), round, origin, destination, arrTime,
+                                bestByRound, bestArrival, seen, next);
+                        break;
+                    }
+                }
+            }
+            marked = next;
+        }
+
+        for (int round = 1; round <= rounds; round++) {
+            if (bestByRound[round] != null) {
+                trips.add(buildTrip(timetable, bestByRound[round], firstClass));
+            }
+        }
+        return trips;
+    }
+
+    // Take leg at departure after previous, and mark where it arrives for the next round
+    private void arrive(Timetable timetable, int leg, int departure, Label previous, int round, int origin,
+            int destination, Integer arrTime, Label[] bestByRound, int[] bestArrival,
+            Map<Integer, Set<Integer>> seen, Map<Integer, TreeMap<Integer, Label>> next) {
+        int arrival = departure + timetable.duration(leg);
+        int city = timetable.toCity(leg);
+
+        // No point going on once we are later than the best arrival found so far
+        if (arrival >= bestArrival[0]) {
+            return;
+        }
+
+        Label label = new Label(leg, departure, arrival, previous);
+        if (city == destination) {
+            if (arrTime == null || timetable.arrival(leg) <= arrTime) {
+                bestByRound[round] = label;
+                bestArrival[0] = arrival;
+            }
+            return;
+        }
+
+        if (city != origin && seen.computeIfAbsent(city, k -> new HashSet<>()).add(arrival)) {
+            next.computeIfAbsent(city, k -> new TreeMap<>()).put(arrival, label);
+        }
+    }
+
+    // Check the filters and that the leg runs on the given day of the journey
+    private boolean runs(Timetable timetable, int row, ServiceDays days, int day, IntPredicate allowed) {
+        if (allowed != null && !allowed.test(row)) {
+            return false;
+        }
+        return days == null || days.runsOn(timetable, row, day);
+    }
+
+    // Turn a chain of labels back into a Trip
+    private Trip buildTrip(Timetable timetable, Label last, boolean firstClass) {
+        List<Label> chain = new ArrayList<>();
+        for (Label label = last; label != null; label = label.previous) {
+            chain.add(label);
+        }
+        Collections.reverse(chain);
+
+        Trip trip = new Trip();
+        int transferMinutes = 0;
+        for (int i = 0; i < chain.size(); i++) {
+            trip.addConnection(timetable.connectionAt(chain.get(i).row));
+            if (i > 0) {
+                transferMinutes += chain.get(i).departure - chain.get(i - 1).arrival;
+            }
+        }
+
+        trip.computeTotalsWithLayovers(firstClass, transferMinutes);
+        return trip;
+    }
+}
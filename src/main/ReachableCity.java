@@ -0,0 +1,36 @@
+// A city reached by a one-to-all search, with the trip arriving there earliest and the cheapest trip
+public class ReachableCity {
+    private String city;
+    private Trip earliestTrip;
+    private int earliestArrival; // Minutes since midnight of the start day
+    private Trip cheapestTrip;
+    private double cheapestFare; // For the class selected in the search
+
+    public ReachableCity(String city, Trip earliestTrip, int earliestArrival, Trip cheapestTrip, double cheapestFare) {
+        this.city = city;
+        this.earliestTrip = earliestTrip;
+        this.earliestArrival = earliestArrival;
+        this.cheapestTrip = cheapestTrip;
+        this.cheapestFare = cheapestFare;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public Trip getEarliestTrip() {
+        return earliestTrip;
+    }
+
+    public int getEarliestArrival() {
+        return earliestArrival;
+    }
+
+    public Trip getCheapestTrip() {
+        return cheapestTrip;
+    }
+
+    public double getCheapestFare() {
+        return cheapestFare;
+    }
+}
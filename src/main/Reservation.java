@@ -68,11 +68,8 @@ public class Reservation {
             return false;
         }
 
-        // Compare route ID, cities, and departure time to find same connection
-        return connection.getRouteID().equals(conn.getRouteID()) &&
-                connection.getDepartureCity().getName().equals(conn.getDepartureCity().getName()) &&
-                connection.getArrivalCity().getName().equals(conn.getArrivalCity().getName()) &&
-                connection.getDepartureTime().equals(conn.getDepartureTime());
+        // Same route, cities and times (see ConnectionKey)
+        return connection.getKey().equals(conn.getKey());
     }
 
     public double getPrice() {
@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bounded least-recently-used cache of search results. Entries belong to one version of the
+// timetable: as soon as Connections reports another version everything cached is dropped,
+// so adding, clearing or reloading connections never serves stale trips.
+// The bound is a number of trips, not of entries, so a few searches from a busy hub cannot
+// keep most of the network's trips alive; results larger than entryTrips are not cached.
+public class SearchCache {
+    private int maxTrips;
+    private int entryTrips;
+    private int trips; // Trips in all entries
+    private int version;
+    private LinkedHashMap<String, List<Trip>> entries;
+
+    public SearchCache(int maxTrips, int entryTrips) {
+        this.maxTrips = maxTrips;
+        this.entryTrips = Math.min(entryTrips, maxTrips);
+        this.version = -1;
+        // Access order, so the first entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // Cached trips for this key, or null. The list is read-only and shared, callers that
+    // sort it make their own copy
+    public synchronized List<Trip> get(String key, int currentVersion) {
+        if (currentVersion != version) {
+            clear(currentVersion);
+            return null;
+        }
+        return entries.get(key);
+    }
+
+    // Caches a copy of trips (unless there are too many) and returns what get() will return
+    public synchronized List<Trip> put(String key, int currentVersion, List<Trip> trips) {
+        if (currentVersion != version) {
+            clear(currentVersion);
+        }
+        if (trips.size() > entryTrips) {
+            return trips;
+        }
+
+        List<Trip> cached = Collections.unmodifiableList(new ArrayList<>(trips));
+        List<Trip> replaced = entries.put(key, cached);
+        this.trips += cached.size() - (replaced != null ? replaced.size() : 0);
+
+        // Least recently used first, never the entry just added
+        Iterator<List<Trip>> eldest = entries.values().iterator();
+        while (this.trips > maxTrips) {
+            List<Trip> evicted = eldest.next();
+            if (evicted == cached) {
+                break;
+            }
+            this.trips -= evicted.size();
+            eldest.remove();
+        }
+        return cached;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Trips held by all entries together
+    public synchronized int tripCount() {
+        return trips;
+    }
+
+    private void clear(int currentVersion) {
+        entries.clear();
+        trips = 0;
+        version = currentVersion;
+    }
+
+    // Times are passed already parsed into minutes, and the text fields ignore case and spaces,
+    // so the same query typed slightly differently gives the same key
+    public static String keyOf(String depCity, String arrCity, Integer depTime, Integer arrTime, String trainType,
+            String daysOp, boolean firstClass, int maxStops, java.time.DayOfWeek startDay) {
+        return normalize(depCity) + "|" + normalize(arrCity) + "|" + depTime + "|" + arrTime + "|"
+                + normalize(trainType) + "|" + normalize(daysOp) + "|" + firstClass + "|" + maxStops + "|"
+                + startDay;
+    }
+
+    // Key of the same query's trips ranked by price or by duration
+    public static String rankedKey(String key, boolean byPrice) {
+        return key + (byPrice ? "|by price" : "|by duration");
+    }
+
+    private static String normalize(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return "";
+        }
+        return value.trim().toLowerCase();
+    }
+}
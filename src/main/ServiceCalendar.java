@@ -0,0 +1,132 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+// Which connections run on a given calendar date, as one bitmap over the timetable rows per
+// date. Ordinary dates share the bitmap of their day of the week (from the days of operation);
+// dates with exceptions in the holidays file get their own copy with routes taken out or added.
+// Checking a leg is then a bit lookup instead of parsing days of operation.
+//
+// Holidays file: one exception per line, "date,route,removed|added", for example
+//   2025-12-25,*,removed      (no trains at all)
+//   2025-12-24,IC123,added    (IC123 runs even though the 24th is not one of its days)
+// A route-specific line wins over "*" for the same date. Blank lines and # comments are skipped.
+public class ServiceCalendar {
+    public static final String DEFAULT_FILE = "railway_system.holidays";
+
+    private static final String ALL_ROUTES = "*";
+
+    private Timetable timetable;
+    private BitSet[] weekdays; // [DayOfWeek.getValue() - 1]
+    private Map<LocalDate, Map<String, Boolean>> exceptions; // date -> route (or *) -> runs
+    private Map<LocalDate, BitSet> exceptionDates; // bitmaps of the dates with exceptions, built on first use
+
+    public ServiceCalendar(Timetable timetable, Map<LocalDate, Map<String, Boolean>> exceptions) {
+        this.timetable = timetable;
+        this.exceptions = exceptions;
+        this.exceptionDates = new HashMap<>();
+        this.weekdays = new BitSet[7];
+        for (int d = 0; d < 7; d++) {
+            weekdays[d] = new BitSet(timetable.size());
+        }
+
+        for (int row = 0; row < timetable.size(); row++) {
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (timetable.runsOn(row, day)) {
+                    weekdays[day.getValue() - 1].set(row);
+                }
+            }
+        }
+    }
+
+    // Rows of the connections that run on date. Ordinary dates need no lock, so parallel
+    // searches only wait on each other for dates with exceptions
+    public BitSet servicesOn(LocalDate date) {
+        Map<String, Boolean> changes = exceptions.get(date);
+        if (changes == null) {
+            return weekdays[date.getDayOfWeek().getValue() - 1];
+        }
+        return exceptionServices(date, changes);
+    }
+
+    private synchronized BitSet exceptionServices(LocalDate date, Map<String, Boolean> changes) {
+        BitSet services = exceptionDates.get(date);
+        if (services == null) {
+            services = (BitSet) weekdays[date.getDayOfWeek().getValue() - 1].clone();
+            Boolean all = changes.get(ALL_ROUTES);
+            if (all != null) {
+                if (all) {
+                    services.set(0, timetable.size());
+                } else {
+                    services.clear();
+                }
+            }
+            if (changes.size() > (all != null ? 1 : 0)) {
+                for (int row = 0; row < timetable.size(); row++) {
+                    Boolean runs = changes.get(timetable.routeId(row).trim());
+                    if (runs != null) {
+                        services.set(row, runs);
+                    }
+                }
+            }
+            exceptionDates.put(date, services);
+        }
+        return services;
+    }
+
+    public boolean runsOn(int row, LocalDate date) {
+        return servicesOn(date).get(row);
+    }
+
+    // Looks the connection's row up in the timetable, so no index over all connections is kept
+    public boolean runsOn(Connection conn, LocalDate date) {
+        int row = timetable.rowOf(conn);
+        return row >= 0 && runsOn(row, date);
+    }
+
+    // Exceptions from the holidays file, none if there is no such file
+    public static Map<LocalDate, Map<String, Boolean>> loadExceptions(String file) {
+        Map<LocalDate, Map<String, Boolean>> exceptions = new HashMap<>();
+        if (file == null || !Files.exists(Paths.get(file))) {
+            return exceptions;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] parts = line.split(",");
+                try {
+                    if (parts.length != 3) {
+                        throw new IllegalArgumentException("expected date,route,removed|added");
+                    }
+                    LocalDate date = LocalDate.parse(parts[0].trim());
+                    String type = parts[2].trim().toLowerCase();
+                    if (!type.equals("removed") && !type.equals("added")) {
+                        throw new IllegalArgumentException("unknown exception type " + parts[2].trim());
+                    }
+                    exceptions.computeIfAbsent(date, k -> new HashMap<>()).put(parts[1].trim(), type.equals("added"));
+                } catch (DateTimeParseException | IllegalArgumentException e) {
+                    System.err.println("Error in holidays file on line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading holidays file: " + e.getMessage());
+        }
+        return exceptions;
+    }
+}
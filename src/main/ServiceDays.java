@@ -0,0 +1,55 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+// The days the legs of a search have to run on, counted from the day the journey starts:
+// either by day of the week from a start day (days of operation only), or by calendar date
+// from a start date (days of operation plus the holiday exceptions of a ServiceCalendar).
+public class ServiceDays {
+    private DayOfWeek startDay;
+    private ServiceCalendar calendar;
+    private LocalDate startDate;
+
+    private ServiceDays(DayOfWeek startDay, ServiceCalendar calendar, LocalDate startDate) {
+        this.startDay = startDay;
+        this.calendar = calendar;
+        this.startDate = startDate;
+    }
+
+    // By day of the week, null when there is no start day (legs may run on any day)
+    public static ServiceDays weekly(DayOfWeek startDay) {
+        return startDay != null ? new ServiceDays(startDay, null, null) : null;
+    }
+
+    public static ServiceDays on(ServiceCalendar calendar, LocalDate startDate) {
+        return new ServiceDays(startDate.getDayOfWeek(), calendar, startDate);
+    }
+
+    public boolean isDated() {
+        return calendar != null;
+    }
+
+    public ServiceCalendar getCalendar() {
+        return calendar;
+    }
+
+    // Calendar date of the given day of the journey (0 = start date), null when not dated
+    public LocalDate date(int day) {
+        return startDate != null ? startDate.plusDays(day) : null;
+    }
+
+    // Whether the timetable row runs on the given day of the journey. The timetable must be the
+    // one the calendar was built from
+    public boolean runsOn(Timetable timetable, int row, int day) {
+        if (calendar != null) {
+            return calendar.runsOn(row, startDate.plusDays(day));
+        }
+        return timetable.runsOn(row, startDay.plus(day));
+    }
+
+    public boolean runsOn(Connection conn, int day) {
+        if (calendar != null) {
+            return calendar.runsOn(conn, startDate.plusDays(day));
+        }
+        return conn.runsOn(startDay.plus(day));
+    }
+}
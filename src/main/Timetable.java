@@ -0,0 +1,262 @@
+import java.time.DayOfWeek;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+// Column-oriented copy of the timetable used inside the search engines. Every field of a
+// connection is stored in its own primitive array (one row per connection), so a scan reads
+// contiguous ints instead of following LocalTime, City, Train and String references.
+// Rows are sorted by departure time. Connection objects are only looked up again with
+// connectionAt() when the final trips are built. The columns can also be read from a
+// MappedTimetableStore instead of heap arrays (see over()).
+public class Timetable {
+    private int size;
+    private MappedTimetableStore store; // Replaces the arrays below when set
+    private int[] departure; // Minutes since midnight
+    private int[] arrival; // Clock time of arrival, minutes since midnight
+    private int[] duration; // Minutes, including the +1d flag
+    private int[] fromCity;
+    private int[] toCity;
+    private int[] train;
+    private byte[] days; // DayMask bits
+    private float[] firstClassPrice;
+    private float[] secondClassPrice;
+    private Connection[] connections;
+
+    // Dense ids for cities and train types (lowercase name -> id), the same ids as the
+    // City and Train symbol tables in Connections
+    private Map<String, Integer> cityIds;
+    private Map<String, Integer> trainIds;
+    private City[] cityTable; // By id
+    private Train[] trainTable;
+
+    // Rows departing each city, sorted by departure: rows byCity[cityStart[c]] .. byCity[cityStart[c + 1] - 1]
+    private int[] cityStart;
+    private int[] byCity;
+
+    private Timetable() {
+    }
+
+    public static Timetable build(List<Connection> all, List<City> cities, List<Train> trains) {
+        Connection[] sorted = all.toArray(new Connection[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(conn -> minutes(conn.getDepartureTime())));
+
+        Timetable t = new Timetable();
+        int n = sorted.length;
+        t.size = n;
+        t.connections = sorted;
+        t.departure = new int[n];
+        t.arrival = new int[n];
+        t.duration = new int[n];
+        t.fromCity = new int[n];
+        t.toCity = new int[n];
+        t.train = new int[n];
+        t.days = new byte[n];
+        t.firstClassPrice = new float[n];
+        t.secondClassPrice = new float[n];
+        t.setSymbols(cities, trains);
+
+        for (int row = 0; row < n; row++) {
+            Connection conn = sorted[row];
+            t.departure[row] = minutes(conn.getDepartureTime());
+            t.arrival[row] = minutes(conn.getArrivalTime());
+            t.duration[row] = conn.getDurationMinutes();
+            t.fromCity[row] = t.cityId(conn.getDepartureCity());
+            t.toCity[row] = t.cityId(conn.getArrivalCity());
+            Train train = conn.getTrain();
+            t.train[row] = idFor(t.trainTable, t.trainIds, train.getId(), train, train.getType());
+            t.days[row] = (byte) conn.getDayMask();
+            t.firstClassPrice[row] = (float) conn.getFirstClassPrice();
+            t.secondClassPrice[row] = (float) conn.getSecondClassPrice();
+        }
+
+        // Counting sort by departure city keeps each city's rows in departure order
+        int cityCount = t.cityIds.size();
+        t.cityStart = new int[cityCount + 1];
+        for (int row = 0; row < n; row++) {
+            t.cityStart[t.fromCity[row] + 1]++;
+        }
+        for (int c = 0; c < cityCount; c++) {
+            t.cityStart[c + 1] += t.cityStart[c];
+        }
+        t.byCity = new int[n];
+        int[] next = Arrays.copyOf(t.cityStart, cityCount);
+        for (int row = 0; row < n; row++) {
+            t.byCity[next[t.fromCity[row]]++] = row;
+        }
+
+        return t;
+    }
+
+    // Timetable reading its rows from the store, so nothing on the heap grows with its size
+    public static Timetable over(MappedTimetableStore store, List<City> cities, List<Train> trains) {
+        Timetable t = new Timetable();
+        t.size = store.size();
+        t.store = store;
+        t.setSymbols(cities, trains);
+        return t;
+    }
+
+    private void setSymbols(List<City> cities, List<Train> trains) {
+        cityIds = new HashMap<>();
+        trainIds = new HashMap<>();
+        cityTable = cities.toArray(new City[0]);
+        trainTable = trains.toArray(new Train[0]);
+        for (City city : cities) {
+            cityIds.put(city.getName().toLowerCase(), city.getId());
+        }
+        for (Train train : trains) {
+            trainIds.put(train.getType().toLowerCase(), train.getId());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int cityCount() {
+        return cityIds.size();
+    }
+
+    // Id of a city by name (case-insensitive), -1 if it is not in the timetable
+    public int cityId(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return -1;
+        }
+        return cityIds.getOrDefault(name.trim().toLowerCase(), -1);
+    }
+
+    // Id of a city without a name lookup when it came from the symbol table
+    public int cityId(City city) {
+        return idFor(cityTable, cityIds, city.getId(), city, city.getName());
+    }
+
+    public City city(int id) {
+        return cityTable[id];
+    }
+
+    public int departure(int row) {
+        return store != null ? store.departure(row) : departure[row];
+    }
+
+    public int arrival(int row) {
+        return store != null ? store.arrival(row) : arrival[row];
+    }
+
+    public int duration(int row) {
+        return store != null ? store.duration(row) : duration[row];
+    }
+
+    public int fromCity(int row) {
+        return store != null ? store.fromCity(row) : fromCity[row];
+    }
+
+    public int toCity(int row) {
+        return store != null ? store.toCity(row) : toCity[row];
+    }
+
+    public int train(int row) {
+        return store != null ? store.train(row) : train[row];
+    }
+
+    // DayMask bits
+    public int days(int row) {
+        return store != null ? store.days(row) : days[row];
+    }
+
+    public boolean runsOn(int row, DayOfWeek day) {
+        return DayMask.contains(store != null ? store.days(row) : days[row], day);
+    }
+
+    public float price(int row, boolean firstClass) {
+        if (store != null) {
+            return (float) store.price(row, firstClass);
+        }
+        return firstClass ? firstClassPrice[row] : secondClassPrice[row];
+    }
+
+    public Connection connectionAt(int row) {
+        return store != null ? store.connection(row) : connections[row];
+    }
+
+    public String routeId(int row) {
+        return store != null ? store.routeId(row) : connections[row].getRouteID();
+    }
+
+    // Row of the connection (same route, cities and times), found among the rows leaving its
+    // city at its departure minute; -1 if it is not in the timetable
+    public int rowOf(Connection conn) {
+        int from = cityId(conn.getDepartureCity());
+        int to = cityId(conn.getArrivalCity());
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        int departure = minutes(conn.getDepartureTime());
+        int arrival = minutes(conn.getArrivalTime());
+        String route = conn.getRouteID().trim();
+
+        int low = firstDeparture(from);
+        int high = endDeparture(from);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departure(departureRow(mid)) < departure) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < endDeparture(from) && departure(departureRow(i)) == departure; i++) {
+            int row = departureRow(i);
+            if (store == null && connections[row] == conn) {
+                return row;
+            }
+            if (toCity(row) == to && arrival(row) == arrival && routeId(row).trim().equals(route)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // Rows leaving a city in departure order: departureRow(i) for firstDeparture(c) <= i < endDeparture(c)
+    public int firstDeparture(int city) {
+        return store != null ? store.firstDeparture(city) : cityStart[city];
+    }
+
+    public int endDeparture(int city) {
+        return store != null ? store.endDeparture(city) : cityStart[city + 1];
+    }
+
+    public int departureRow(int index) {
+        return store != null ? store.departureRow(index) : byCity[index];
+    }
+
+    // Test for the rows passing the train type and days filters (same rules as
+    // Connections.findMatching), or null when neither filter is set. Rows are checked as the
+    // search reaches them, nothing is allocated per row
+    public IntPredicate matching(String trainType, String daysOp) {
+        String trainFilter = (trainType != null && !trainType.trim().isEmpty()) ? trainType.trim() : null;
+        IntPredicate daysFilter = DayMask.filter(daysOp);
+        if (trainFilter == null && daysFilter == null) {
+            return null;
+        }
+
+        int trainId = trainFilter != null ? trainIds.getOrDefault(trainFilter.toLowerCase(), -1) : -1;
+        return row -> (trainFilter == null || train(row) == trainId)
+                && (daysFilter == null || daysFilter.test(days(row)));
+    }
+
+    // The symbol id when the object is the one in the table, otherwise a lookup by name
+    private static int idFor(Object[] table, Map<String, Integer> ids, int id, Object symbol, String name) {
+        if (id >= 0 && id < table.length && table[id] == symbol) {
+            return id;
+        }
+        return ids.getOrDefault(name.trim().toLowerCase(), -1);
+    }
+
+    private static int minutes(java.time.LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binary copy of the loaded timetable so startup does not have to run the three-way join in
+// DatabaseManager.loadAllConnections and parse every time again. The file holds the city and
+// train symbol tables followed by one fixed-layout record per connection, and is read back
+// in one go into a heap buffer. It is not memory-mapped, since a mapping outlives the load
+// and Windows cannot replace a mapped file when the next snapshot is written. It is stamped
+// with the connection count and highest connection id in the database; if either differs
+// the snapshot is stale and is ignored.
+public class TimetableSnapshot {
+    public static final String DEFAULT_FILE = "railway_system.snapshot";
+
+    private static final int MAGIC = 0x52434e54; // "RCNT"
+    private static final int FORMAT_VERSION = 1;
+
+    private TimetableSnapshot() {
+    }
+
+    public static void write(String file, List<Connection> all, Connections connections, DatabaseManager dbManager,
+            int dbCount, int dbMaxId) throws IOException {
+        Path target = Paths.get(file);
+        Path temp = Paths.get(file + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(dbCount);
+            out.writeInt(dbMaxId);
+
+            // Symbol tables in id order, so the ids in the records below can be used directly
+            out.writeInt(connections.getCityCount());
+            for (int id = 0; id < connections.getCityCount(); id++) {
+                writeString(out, connections.getCity(id).getName());
+            }
+            out.writeInt(connections.getTrainCount());
+            for (int id = 0; id < connections.getTrainCount(); id++) {
+                writeString(out, connections.getTrain(id).getType());
+            }
+
+            out.writeInt(all.size());
+            for (Connection conn : all) {
+                writeString(out, conn.getRouteID());
+                out.writeInt(connections.findCity(conn.getDepartureCity().getName()).getId());
+                out.writeInt(connections.findCity(conn.getArrivalCity().getName()).getId());
+                out.writeShort(minutes(conn.getDepartureTime()));
+                out.writeShort(minutes(conn.getArrivalTime()));
+                out.writeInt(connections.findTrain(conn.getTrain().getType()).getId());
+                writeString(out, conn.getDaysOfOperation());
+                out.writeDouble(conn.getFirstClassPrice());
+                out.writeDouble(conn.getSecondClassPrice());
+                out.writeBoolean(conn.isNextDay());
+                out.writeInt(dbManager.getKnownConnectionId(conn.getKey()));
+            }
+        }
+
+        // Readers only ever see a complete file
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Connections in the snapshot, with cities and trains created through the symbol tables of
+    // connections. Returns null when there is no snapshot, it is stale or it cannot be read
+    public static List<Connection> load(String file, Connections connections, DatabaseManager dbManager,
+            int dbCount, int dbMaxId) {
+        Path path = Paths.get(file);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            if (buffer.getInt() != dbCount || buffer.getInt() != dbMaxId) {
+                System.out.println("Timetable snapshot is out of date, loading from database.");
+                return null;
+            }
+
+            City[] cities = new City[buffer.getInt()];
+            for (int id = 0; id < cities.length; id++) {
+                cities[id] = connections.findOrCreateCity(readString(buffer));
+            }
+            Train[] trains = new Train[buffer.getInt()];
+            for (int id = 0; id < trains.length; id++) {
+                trains[id] = connections.findOrCreateTrain(readString(buffer));
+            }
+
+            int count = buffer.getInt();
+            List<Connection> loaded = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String routeID = readString(buffer);
+                City depCity = cities[buffer.getInt()];
+                City arrCity = cities[buffer.getInt()];
+                LocalTime depTime = time(buffer.getShort());
+                LocalTime arrTime = time(buffer.getShort());
+                Train train = trains[buffer.getInt()];
+                String daysOfOp = readString(buffer);
+                double firstClassPrice = buffer.getDouble();
+                double secondClassPrice = buffer.getDouble();
+                boolean isNextDay = buffer.get() != 0;
+                int dbId = buffer.getInt();
+
+                Connection connection = new Connection(routeID, depCity, arrCity, depTime, arrTime,
+                        train, daysOfOp, firstClassPrice, secondClassPrice, isNextDay);
+                loaded.add(connection);
+                if (dbId >= 0) {
+                    dbManager.rememberConnectionId(connection.getKey(), dbId);
+                }
+            }
+            return loaded;
+
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.err.println("Error reading timetable snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int minutes(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    private static LocalTime time(int minutes) {
+        return LocalTime.of(minutes / 60, minutes % 60);
+    }
+}
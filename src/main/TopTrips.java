@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Keeps only the best k trips seen so far, ranked by duration or by price for the
+// selected class. The worst kept trip sits on top of a bounded heap, so the search can
+// ask canBeat() with a lower bound and skip branches that cannot make the cut.
+// Ties are broken by the order the trips were offered, which matches a stable sort of
+// the full result list.
+public class TopTrips {
+    private int k;
+    private boolean byPrice;
+    private boolean firstClass;
+    private long nextSequence;
+    private PriorityQueue<Entry> heap;
+
+    private static class Entry {
+        private Trip trip;
+        private double key;
+        private long sequence;
+
+        private Entry(Trip trip, double key, long sequence) {
+            this.trip = trip;
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> BEST_FIRST = Comparator.<Entry>comparingDouble(e -> e.key)
+            .thenComparingLong(e -> e.sequence);
+
+    public TopTrips(int k, boolean byPrice, boolean firstClass) {
+        this.k = k;
+        this.byPrice = byPrice;
+        this.firstClass = firstClass;
+        this.nextSequence = 0;
+        this.heap = new PriorityQueue<>(Math.max(1, k), BEST_FIRST.reversed());
+    }
+
+    // Empty list with the same k and ranking, e.g. for one task of a parallel search
+    public TopTrips emptyCopy() {
+        return new TopTrips(k, byPrice, firstClass);
+    }
+
+    public boolean isByPrice() {
+        return byPrice;
+    }
+
+    // False once k trips are kept and a trip scoring at least lowerBound would rank after all of
+    // them (always false when k is 0, nothing can be kept)
+    public boolean canBeat(double lowerBound) {
+        if (k <= 0) {
+            return false;
+        }
+        return heap.size() < k || lowerBound < heap.peek().key;
+    }
+
+    public void offer(Trip trip) {
+        double key = keyOf(trip);
+        long sequence = nextSequence++;
+
+        if (heap.size() < k) {
+            heap.add(new Entry(trip, key, sequence));
+        } else if (k > 0 && key < heap.peek().key) {
+            heap.poll();
+            heap.add(new Entry(trip, key, sequence));
+        }
+    }
+
+    public double keyOf(Trip trip) {
+        if (byPrice) {
+            return firstClass ? trip.getTotalFirstClassPrice() : trip.getTotalSecondClassPrice();
+        }
+        return trip.getTotalDurationMinutes();
+    }
+
+    // Kept trips, best first
+    public List<Trip> toList() {
+        List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(BEST_FIRST);
+
+        List<Trip> trips = new ArrayList<>();
+        for (Entry entry : entries) {
+            trips.add(entry.trip);
+        }
+        return trips;
+    }
+}
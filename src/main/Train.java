@@ -1,13 +1,44 @@
 public class Train {
     
     private String trainType;
+    private int id; // Dense id from Connections.findOrCreateTrain, -1 if created elsewhere
+    private int hash;
 
     public Train(String trainType) {
+        this(-1, trainType);
+    }
+
+    public Train(int id, String trainType) {
+        this.id = id;
         this.trainType = trainType;
+        this.hash = trainType.toLowerCase().hashCode();
     }
 
     public String getType() {
         return this.trainType;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    // Trains are matched by type, ignoring case (as in Connections.findOrCreateTrain). Trains
+    // from findOrCreateTrain are interned, so for those this is the same as comparing references
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Train)) {
+            return false;
+        }
+        Train other = (Train) obj;
+        return hash == other.hash && trainType.equalsIgnoreCase(other.trainType);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
 }
@@ -0,0 +1,367 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Transfer patterns: for every pair of cities, the transfer cities that some one-stop or
+// two-stop trip between them can go through at any time of day. Computed per origin from every
+// pair of legs that fits the layover window, ignoring train type, day and time filters, so the
+// patterns of a filtered search are always a subset and the searches stay exact.
+// searchConnections then only follows first and second legs into cities that are on a pattern
+// to the destination, instead of working out the possible transfer cities per query.
+// Only the pairs of cities that have patterns are stored, per origin. Adding connections only
+// recomputes the origins whose trips can use them. Saved next to the timetable snapshot, with
+// the same stamp, so they survive restarts. Like the snapshot, the file is read into the heap
+// rather than mapped, so it can be replaced by the next save.
+public class TransferPatterns {
+    public static final String DEFAULT_FILE = "railway_system.patterns";
+
+    private static final int MAGIC = 0x52435450; // "RCTP"
+    private static final int FORMAT_VERSION = 2;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    // Patterns from one origin: destinations in id order, each with its transfer cities in id order
+    private static class Patterns {
+        private int[] destinations;
+        private int[] viaStart; // Vias of destinations[i] are vias[viaStart[i]] .. vias[viaStart[i + 1] - 1]
+        private int[] vias;
+
+        private Patterns(int[] destinations, int[] viaStart, int[] vias) {
+            this.destinations = destinations;
+            this.viaStart = viaStart;
+            this.vias = vias;
+        }
+
+        private boolean contains(int destination, int via) {
+            int i = Arrays.binarySearch(destinations, destination);
+            return i >= 0 && Arrays.binarySearch(vias, viaStart[i], viaStart[i + 1], via) >= 0;
+        }
+    }
+
+    // (destination, via) pairs collected for one origin, packed into longs
+    private static class Pairs {
+        private long[] pairs = new long[64];
+        private int size;
+
+        private void add(int destination, int via) {
+            if (size == pairs.length) {
+                pairs = Arrays.copyOf(pairs, size * 2);
+            }
+            pairs[size++] = ((long) destination << 32) | via;
+        }
+
+        // Sorted and without duplicates, null when there are none. Empties the buffer
+        private Patterns toPatterns() {
+            if (size == 0) {
+                return null;
+            }
+            Arrays.sort(pairs, 0, size);
+            int[] destinations = new int[size];
+            int[] viaStart = new int[size + 1];
+            int[] vias = new int[size];
+            int count = 0;
+            int viaCount = 0;
+            for (int i = 0; i < size; i++) {
+                if (i > 0 && pairs[i] == pairs[i - 1]) {
+                    continue;
+                }
+                int destination = (int) (pairs[i] >>> 32);
+                if (count == 0 || destinations[count - 1] != destination) {
+                    destinations[count] = destination;
+                    viaStart[count] = viaCount;
+                    count++;
+                }
+                vias[viaCount++] = (int) pairs[i];
+            }
+            viaStart[count] = viaCount;
+            size = 0;
+            return new Patterns(Arrays.copyOf(destinations, count), Arrays.copyOf(viaStart, count + 1),
+                    Arrays.copyOf(vias, viaCount));
+        }
+    }
+
+    private City[] cityTable; // by id, as in the timetable the patterns were built from
+    private Map<String, Integer> cityIds;
+    private int cities;
+    private Patterns[] oneStop; // By origin -> destination -> transfer cities, null when none
+    private Patterns[] firstVias; // By origin -> destination -> first transfer cities of two-stop trips
+
+    private TransferPatterns(Timetable timetable) {
+        this.cityTable = new City[0];
+        this.cityIds = new HashMap<>();
+        this.oneStop = new Patterns[0];
+        this.firstVias = new Patterns[0];
+        addCities(timetable);
+    }
+
+    public static TransferPatterns build(Timetable timetable) {
+        TransferPatterns patterns = new TransferPatterns(timetable);
+        int[] seen = new int[timetable.size()];
+        Pairs oneStopPairs = new Pairs();
+        Pairs twoStopPairs = new Pairs();
+        for (int origin = 0; origin < patterns.cities; origin++) {
+            patterns.buildOrigin(timetable, origin, seen, oneStopPairs, twoStopPairs);
+        }
+        return patterns;
+    }
+
+    // Brings the patterns up to date with connections added to the timetable since they were
+    // built. A new leg can be the first, second or third leg of a trip, so only its departure
+    // city and the origins of the legs (and pairs of legs) that connect into it are recomputed
+    public void extend(Timetable timetable, List<Connection> added) {
+        addCities(timetable);
+
+        // Rows arriving at each city
+        int[] arrivingStart = new int[cities + 1];
+        for (int row = 0; row < timetable.size(); row++) {
+            arrivingStart[timetable.toCity(row) + 1]++;
+        }
+        for (int c = 0; c < cities; c++) {
+            arrivingStart[c + 1] += arrivingStart[c];
+        }
+        int[] arriving = new int[timetable.size()];
+        int[] next = Arrays.copyOf(arrivingStart, cities);
+        for (int row = 0; row < timetable.size(); row++) {
+            arriving[next[timetable.toCity(row)]++] = row;
+        }
+
+        BitSet origins = new BitSet(cities);
+        for (Connection conn : added) {
+            int city = timetable.cityId(conn.getDepartureCity());
+            if (city < 0) {
+                continue;
+            }
+            origins.set(city);
+            int departure = conn.getDepartureTime().getHour() * 60 + conn.getDepartureTime().getMinute();
+            for (int i = arrivingStart[city]; i < arrivingStart[city + 1]; i++) {
+                int before = arriving[i];
+                if (!fits(timetable.arrival(before), departure)) {
+                    continue;
+                }
+                int from = timetable.fromCity(before);
+                origins.set(from);
+                for (int j = arrivingStart[from]; j < arrivingStart[from + 1]; j++) {
+                    if (connects(timetable, arriving[j], before)) {
+                        origins.set(timetable.fromCity(arriving[j]));
+                    }
+                }
+            }
+        }
+
+        int[] seen = new int[timetable.size()];
+        Pairs oneStopPairs = new Pairs();
+        Pairs twoStopPairs = new Pairs();
+        for (int origin = origins.nextSetBit(0); origin >= 0; origin = origins.nextSetBit(origin + 1)) {
+            buildOrigin(timetable, origin, seen, oneStopPairs, twoStopPairs);
+        }
+    }
+
+    // Every first leg from origin, the second legs it connects to and, once per second leg,
+    // the third legs that one connects to. seen marks the second legs already expanded
+    private void buildOrigin(Timetable timetable, int origin, int[] seen, Pairs oneStopPairs, Pairs twoStopPairs) {
+        int mark = origin + 1;
+        for (int i = timetable.firstDeparture(origin); i < timetable.endDeparture(origin); i++) {
+            int first = timetable.departureRow(i);
+            int firstVia = timetable.toCity(first);
+            for (int j = timetable.firstDeparture(firstVia); j < timetable.endDeparture(firstVia); j++) {
+                int second = timetable.departureRow(j);
+                if (!connects(timetable, first, second)) {
+                    continue;
+                }
+                oneStopPairs.add(timetable.toCity(second), firstVia);
+
+                if (seen[second] == mark) {
+                    continue;
+                }
+                seen[second] = mark;
+                int secondVia = timetable.toCity(second);
+                for (int k = timetable.firstDeparture(secondVia); k < timetable.endDeparture(secondVia); k++) {
+                    int third = timetable.departureRow(k);
+                    if (connects(timetable, second, third)) {
+                        twoStopPairs.add(timetable.toCity(third), firstVia);
+                    }
+                }
+            }
+        }
+        oneStop[origin] = oneStopPairs.toPatterns();
+        firstVias[origin] = twoStopPairs.toPatterns();
+    }
+
+    // Cities the timetable has that the patterns do not know yet (ids only ever grow)
+    private void addCities(Timetable timetable) {
+        int count = timetable.cityCount();
+        if (count <= cities) {
+            return;
+        }
+        cityTable = Arrays.copyOf(cityTable, count);
+        oneStop = Arrays.copyOf(oneStop, count);
+        firstVias = Arrays.copyOf(firstVias, count);
+        for (int id = cities; id < count; id++) {
+            cityTable[id] = timetable.city(id);
+            cityIds.put(cityTable[id].getName().toLowerCase(), id);
+        }
+        cities = count;
+    }
+
+    // Same layover rule as the one-stop and two-stop searches: the next leg leaves between 30
+    // and 540 minutes after the clock time of arrival, wrapping past midnight
+    private static boolean connects(Timetable timetable, int row, int next) {
+        return fits(timetable.arrival(row), timetable.departure(next));
+    }
+
+    private static boolean fits(int arrival, int departure) {
+        int wait = Math.floorMod(departure - arrival - RailwaySystem.MIN_LAYOVER_MINUTES, MINUTES_PER_DAY);
+        return wait <= RailwaySystem.MAX_DAY_LAYOVER_MINUTES - RailwaySystem.MIN_LAYOVER_MINUTES;
+    }
+
+    // Whether a one-stop trip from depCity to arrCity can change trains at via
+    public boolean isOneStopVia(City depCity, City arrCity, City via) {
+        return contains(oneStop, depCity, arrCity, via);
+    }
+
+    // Whether a two-stop trip from depCity to arrCity can change trains first at via
+    public boolean isFirstVia(City depCity, City arrCity, City via) {
+        return contains(firstVias, depCity, arrCity, via);
+    }
+
+    // Whether a two-stop trip from depCity to arrCity can change trains at firstVia, then at
+    // secondVia. The rest of such a trip is a one-stop trip from firstVia, so this checks that
+    // pattern; it ignores where the trip started, which only lets more trips through
+    public boolean isSecondVia(City depCity, City arrCity, City firstVia, City secondVia) {
+        return contains(oneStop, firstVia, arrCity, secondVia);
+    }
+
+    private boolean contains(Patterns[] table, City depCity, City arrCity, City via) {
+        int origin = cityId(depCity);
+        int destination = cityId(arrCity);
+        int transfer = cityId(via);
+        if (origin < 0 || destination < 0 || transfer < 0) {
+            return false;
+        }
+        return table[origin] != null && table[origin].contains(destination, transfer);
+    }
+
+    // Id without a name lookup when the city came from the symbol table, -1 if it is unknown
+    private int cityId(City city) {
+        if (city == null) {
+            return -1;
+        }
+        int id = city.getId();
+        if (id >= 0 && id < cities && cityTable[id] == city) {
+            return id;
+        }
+        return cityIds.getOrDefault(city.getName().toLowerCase(), -1);
+    }
+
+    public void write(String file, int dbCount, int dbMaxId) throws IOException {
+        Path target = Paths.get(file);
+        Path temp = Paths.get(file + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(dbCount);
+            out.writeInt(dbMaxId);
+
+            // City names in id order: the patterns are only used if the ids still match
+            out.writeInt(cities);
+            for (int id = 0; id < cities; id++) {
+                byte[] name = cityTable[id].getName().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+
+            writeTable(out, oneStop);
+            writeTable(out, firstVias);
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Patterns saved for this timetable, or null when there are none, they are stale (other
+    // database stamp or city ids) or they cannot be read
+    public static TransferPatterns load(String file, Timetable timetable, int dbCount, int dbMaxId) {
+        Path path = Paths.get(file);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION || buffer.getInt() != dbCount
+                    || buffer.getInt() != dbMaxId || buffer.getInt() != timetable.cityCount()) {
+                return null;
+            }
+            for (int id = 0; id < timetable.cityCount(); id++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                if (!timetable.city(id).getName().equals(new String(name, StandardCharsets.UTF_8))) {
+                    return null;
+                }
+            }
+
+            TransferPatterns patterns = new TransferPatterns(timetable);
+            readTable(buffer, patterns.oneStop);
+            readTable(buffer, patterns.firstVias);
+            return patterns;
+
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.err.println("Error reading transfer patterns: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Origins with patterns, each as origin, destinations, via offsets and vias
+    private static void writeTable(DataOutputStream out, Patterns[] table) throws IOException {
+        int entries = 0;
+        for (Patterns patterns : table) {
+            if (patterns != null) {
+                entries++;
+            }
+        }
+        out.writeInt(entries);
+        for (int origin = 0; origin < table.length; origin++) {
+            if (table[origin] != null) {
+                out.writeInt(origin);
+                writeInts(out, table[origin].destinations);
+                writeInts(out, table[origin].viaStart);
+                writeInts(out, table[origin].vias);
+            }
+        }
+    }
+
+    private static void readTable(ByteBuffer buffer, Patterns[] table) {
+        int entries = buffer.getInt();
+        for (int i = 0; i < entries; i++) {
+            int origin = buffer.getInt();
+            table[origin] = new Patterns(readInts(buffer), readInts(buffer), readInts(buffer));
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer) {
+        int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+        return values;
+    }
+}
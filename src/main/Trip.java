@@ -1,3 +1,4 @@
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -7,6 +8,7 @@ public class Trip {
     private double totalFirstClassPrice;
     private double totalSecondClassPrice;
     private int transferTimeMinutes;
+    private List<LocalDate> departureDates; // per connection, only for date-aware searches
 
     public Trip() {
         this.connections = new ArrayList<>();
@@ -24,6 +26,24 @@ public class Trip {
         return connections;
     }
 
+    public void setDepartureDates(List<LocalDate> departureDates) {
+        this.departureDates = departureDates;
+    }
+
+    // Date each connection leaves on, or null when the trip was found by day of the week
+    public List<LocalDate> getDepartureDates() {
+        return departureDates;
+    }
+
+    public LocalDate getArrivalDate() {
+        if (departureDates == null || connections.isEmpty()) {
+            return null;
+        }
+        Connection last = connections.get(connections.size() - 1);
+        LocalDate departure = departureDates.get(departureDates.size() - 1);
+        return last.isNextDay() ? departure.plusDays(1) : departure;
+    }
+
     public int getStopCount() {
         if (connections.size() > 0) {
             return connections.size() - 1;
@@ -33,10 +53,19 @@ public class Trip {
 
     // Compute total durations + prices
     public void computeTotals(boolean firstClass, int transferMinutes) {
+        sumTotals(transferMinutes * getStopCount());
+    }
+
+    // Compute totals when the layover differs at each stop (sum of all layovers)
+    public void computeTotalsWithLayovers(boolean firstClass, int totalTransferMinutes) {
+        sumTotals(totalTransferMinutes);
+    }
+
+    private void sumTotals(int totalTransferMinutes) {
         totalDurationMinutes = 0;
         totalFirstClassPrice = 0.0;
         totalSecondClassPrice = 0.0;
-        transferTimeMinutes = transferMinutes * getStopCount();
+        transferTimeMinutes = totalTransferMinutes;
 
         for (Connection connection: connections) {
             totalDurationMinutes = totalDurationMinutes + connection.getDurationMinutes();
@@ -1,5 +1,9 @@
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javafx.scene.chart.PieChart.Data;
 
@@ -10,8 +14,12 @@ public class TripCollection {
     private DatabaseManager dbManager;
     private Connections connections;
 
+    // Connections each client holds a reservation on (client ID -> connection keys)
+    private Map<String, Set<ConnectionKey>> reservedConnections;
+
     public TripCollection() {
         this.trips = new ArrayList<>();
+        this.reservedConnections = new HashMap<>();
         this.dbManager = null;
         this.connections = null;
     }
@@ -30,6 +38,9 @@ public class TripCollection {
             System.out.println("Loading booked trips from database...");
             List<BookedTrip> loaded = dbManager.loadAllBookedTrips(connections);
             trips.addAll(loaded);
+            for (BookedTrip trip : loaded) {
+                indexReservations(trip);
+            }
             System.out.println("Loaded " + loaded.size() + " booked trips from database.");
         } catch (Exception e) {
             System.err.println("Error loading trips from database: " + e.getMessage());
@@ -41,6 +52,7 @@ public class TripCollection {
     public void saveTrip(BookedTrip trip) {
         if (trip != null && trip.isValid()) {
             trips.add(trip);
+            indexReservations(trip);
             System.out.println("Trip saved: " + trip.getTripId());
 
             // Save to database if available
@@ -108,6 +120,7 @@ public class TripCollection {
     // Reset the application
     public void clear() {
         trips.clear();
+        reservedConnections.clear();
         System.out.println("All trips cleared from memory.");
 
         // Clear from database if available
@@ -123,15 +136,16 @@ public class TripCollection {
 
     // One reservation per client per connection
     public boolean hasReservationForConnection(String clientId, Connection connection) {
-        for (BookedTrip trip : trips) {
-            for (Reservation reservation : trip.getReservations()) {
-                // Check if this reservation is for the same client and same connection
-                if (reservation.getClient().getId().equals(clientId) &&
-                        reservation.isForConnection(connection)) {
-                    return true;
-                }
+        Set<ConnectionKey> reserved = reservedConnections.get(clientId);
+        return reserved != null && connection != null && reserved.contains(connection.getKey());
+    }
+
+    private void indexReservations(BookedTrip trip) {
+        for (Reservation reservation : trip.getReservations()) {
+            if (reservation.getClient() != null && reservation.getConnection() != null) {
+                reservedConnections.computeIfAbsent(reservation.getClient().getId(), k -> new HashSet<>())
+                        .add(reservation.getConnection().getKey());
             }
         }
-        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Iterates over ranked search results one page at a time. A page is only loaded when the
+// caller gets to it, so only the trips up to the current page are ever searched for and held.
+public class TripPages implements Iterator<Trip> {
+    // Loads the trips ranked offset .. offset + limit - 1 (fewer at the end of the results)
+    public interface PageLoader {
+        List<Trip> load(int offset, int limit);
+    }
+
+    private PageLoader loader;
+    private int pageSize;
+    private int offset;
+    private List<Trip> page;
+    private int index;
+    private boolean lastPage;
+
+    public TripPages(PageLoader loader, int pageSize) {
+        this.loader = loader;
+        this.pageSize = Math.max(1, pageSize);
+        this.offset = 0;
+        this.page = new ArrayList<>();
+        this.index = 0;
+        this.lastPage = false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (index < page.size()) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+
+        page = loader.load(offset, pageSize);
+        offset += page.size();
+        index = 0;
+        lastPage = page.size() < pageSize;
+        return !page.isEmpty();
+    }
+
+    // Like hasNext(), but without loading the next page. May be true when the last
+    // page happened to be full and there is nothing after it
+    public boolean mayHaveMore() {
+        return index < page.size() || !lastPage;
+    }
+
+    @Override
+    public Trip next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(index++);
+    }
+
+    // Up to count more trips, fewer if the results run out
+    public List<Trip> next(int count) {
+        List<Trip> trips = new ArrayList<>();
+        while (trips.size() < count && hasNext()) {
+            trips.add(next());
+        }
+        return trips;
+    }
+}